@@ -0,0 +1,113 @@
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+/* 音声フレームの解析を JavaFX のスレッドから外す
+ * Player/Recorder のリスナーから submit されたフレームを専用のスレッドで解析し，
+ * 結果(書き換えない小さなスナップショット)を UpdateCoalescer に溜めて，表示の更新ごとに JavaFX のスレッドへまとめて渡す．
+ * フレームが表示の更新より速く届くときは複数の結果が1回にまとまる(coalesced)．
+ * フレームは FrameRingBuffer で受け渡すので submit はコピーするだけでメモリを確保しない．
+ * 解析が追いつかずリング(capacity フレーム)があふれたときは overflow に従って捨てる(dropped)．
+ * UpdateCoalescer.latest で作ったときは最新の結果しか表示しないので，リングに溜まった古いフレームは解析せずに飛ばす(skipped) */
+public final class AnalysisWorker<R> implements AutoCloseable {
+
+    /* 1フレームの解析．解析用のスレッドだけから呼ばれる．frame は呼び出しの後で使い回される */
+    public interface Analyzer<R> {
+        R analyze(double[] frame, long position);
+    }
+
+    private final Analyzer<R> analyzer;
+    private final UpdateCoalescer<R> coalescer;
+    private final FrameRingBuffer ring;
+    private final Thread thread;
+
+    private final AtomicLong processed = new AtomicLong();
+    private final AtomicLong skipped = new AtomicLong();
+
+    /* ui は JavaFX のスレッドで，前回から溜まった結果を古い順に並べたリストを受け取る(UpdateCoalescer.all)．
+     * JavaFX のスレッドで作ること(表示の更新に合わせるタイマーを開始する) */
+    public AnalysisWorker(final String name, final int frameSize, final int capacity,
+                          final FrameRingBuffer.Overflow overflow,
+                          final Analyzer<R> analyzer, final Consumer<List<R>> ui) {
+        this(name, frameSize, capacity, overflow, analyzer, UpdateCoalescer.all(ui));
+    }
+
+    /* 結果を coalescer (まだ start していないもの)で画面に渡す．JavaFX のスレッドで作ること */
+    public AnalysisWorker(final String name, final int frameSize, final int capacity,
+                          final FrameRingBuffer.Overflow overflow,
+                          final Analyzer<R> analyzer, final UpdateCoalescer<R> coalescer) {
+        this.ring = new FrameRingBuffer(capacity, frameSize, overflow);
+        this.analyzer = analyzer;
+        this.coalescer = coalescer.start();
+        this.thread = new Thread(this::run, name);
+        thread.setDaemon(true);
+        thread.start();
+    }
+
+    /* フレームを解析待ちに加える(Player/Recorder のリスナーから呼ぶ)．frame はコピーするので使い回してよい */
+    public final void submit(final double[] frame, final long position) {
+        ring.offer(frame, position);
+    }
+
+    /* 受け渡しのリング(占有数などを見る用) */
+    public final FrameRingBuffer getRing() {
+        return ring;
+    }
+
+    public final long getSubmitted() {
+        return ring.getOffered();
+    }
+
+    public final long getProcessed() {
+        return processed.get();
+    }
+
+    /* 最新の結果だけを表示するために解析せずに飛ばしたフレーム数 */
+    public final long getSkipped() {
+        return skipped.get();
+    }
+
+    /* リングがあふれて解析しなかったフレーム数 */
+    public final long getDropped() {
+        return ring.getDropped();
+    }
+
+    /* 他の結果とまとめて画面に渡された結果の数(1回の受け渡しで n 個渡せば n-1 増える) */
+    public final long getCoalesced() {
+        return coalescer.getCoalesced();
+    }
+
+    @Override
+    public final String toString() {
+        return thread.getName() + ": submitted " + getSubmitted() + ", processed " + getProcessed()
+            + ", skipped " + getSkipped() + ", coalesced " + getCoalesced() + " in " + coalescer.getTicks() + " UI updates [" + ring + "]";
+    }
+
+    /* 解析用のスレッドと画面への反映を止める(リングに残ったフレームは捨てる)．JavaFX のスレッドから呼ぶこと */
+    @Override
+    public final void close() {
+        thread.interrupt();
+        coalescer.stop();
+    }
+
+    private void run() {
+        final double[] frame = new double[ring.getFrameSize()];
+        try {
+            while (!Thread.currentThread().isInterrupted()) {
+                long position = ring.take(frame);
+                if (coalescer.isLatestOnly()) {
+                    while (ring.size() > 0) {
+                        position = ring.poll(frame);
+                        skipped.incrementAndGet();
+                    }
+                }
+                final R result = analyzer.analyze(frame, position);
+                processed.incrementAndGet();
+                coalescer.offer(result);
+            }
+        } catch (InterruptedException e) {
+            // close された
+        }
+    }
+
+}
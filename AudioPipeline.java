@@ -0,0 +1,245 @@
+import java.io.Closeable;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+/* 押し出し型の解析パイプライン
+ * 読み出し元(Source)から chunkSize サンプルずつ読み，フレーム長 frameSize・シフト長 hopSize で切り出したフレームに
+ * 窓を掛け，処理段(Stage)を順に通して出力先(Sink)へ渡す．
+ * 一度に持つのは1チャンクと1フレーム分だけなので，ファイルの長さによらずメモリ使用量は一定で，
+ * 先頭のフレームの結果はファイルを読み終える前に出力先に届く．
+ *
+ *   new AudioPipeline(AudioPipeline.source(reader), frameSize, hopSize)
+ *       .window(window)
+ *       .then(PipelineStages.logSpectrum(fftSize))
+ *       .to(PipelineSinks.csv(file))
+ *       .run();
+ */
+public final class AudioPipeline {
+
+    /* サンプルの読み出し元．position サンプル目から最大 length 個を dst[offset] 以降に書き込み，個数を返す(終端で 0) */
+    public interface Source {
+        int read(long position, double[] dst, int offset, int length) throws IOException;
+    }
+
+    /* 1フレームを受け取って結果を返す処理段．返す配列は次の呼び出しで上書きしてよい */
+    public interface Stage {
+        double[] process(double[] in);
+    }
+
+    /* 出力先．values は呼び出しの後で上書きされるので，保持するならコピーすること．
+     * run の最後に，途中で例外が起きたかどうかによらず close が呼ばれる(ファイルなどはここで閉じる) */
+    public interface Sink extends Closeable {
+        void accept(long frame, double[] values) throws IOException;
+
+        /* 全フレームを渡し終えたときに(正常に終わったときだけ) close の前に呼ばれる */
+        default void finish() throws IOException {}
+
+        @Override
+        default void close() throws IOException {}
+    }
+
+    // 1回に読むサンプル数の既定値
+    public static final int defaultChunkSize = 1 << 16;
+
+    private final Source source;
+    private final int frameSize;
+    private final int hopSize;
+    private double[] window = null;
+    private boolean pad = true;
+    private int chunkSize = defaultChunkSize;
+    private final List<Stage> stages = new ArrayList<>();
+    private final List<Sink> sinks = new ArrayList<>();
+
+    public AudioPipeline(final Source source, final int frameSize, final int hopSize) {
+        if (frameSize < 1)
+            throw new IllegalArgumentException("frameSize must be positive: " + frameSize);
+        if (hopSize < 1)
+            throw new IllegalArgumentException("hopSize must be positive: " + hopSize);
+        this.source = source;
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+    }
+
+    /* WAV ファイルを読み出し元にする */
+    public static Source source(final WavFileReader reader) {
+        return reader::read;
+    }
+
+    /* メモリ上の波形を読み出し元にする */
+    public static Source source(final double[] waveform) {
+        return (position, dst, offset, length) -> {
+            final int n = (int) Math.max(0, Math.min(length, waveform.length - position));
+            if (n > 0)
+                System.arraycopy(waveform, (int) position, dst, offset, n);
+            return n;
+        };
+    }
+
+    /* 長さ length の source の前後に lead サンプルずつ 0 を足した読み出し元．
+     * 長さ frameSize + 2 lead のフレームを同じシフトで切り出すと(pad(false))，
+     * 各フレームの中心が元の長さ frameSize のフレームの中心と揃い，フレーム数も同じになる */
+    public static Source padded(final Source source, final long length, final int lead) {
+        if (lead < 0)
+            throw new IllegalArgumentException("lead must be non-negative: " + lead);
+        return (position, dst, offset, n) -> {
+            final long end = Math.min(position + n, length + 2L * lead);
+            long p = position;
+            while (p < end) {
+                final int o = offset + (int) (p - position);
+                if (p < lead || p >= lead + length) {
+                    final long zeros = (p < lead ? Math.min(end, lead) : end) - p;
+                    Arrays.fill(dst, o, o + (int) zeros, 0.0);
+                    p += zeros;
+                } else {
+                    final long stop = Math.min(end, lead + length);
+                    final int read = source.read(p - lead, dst, o, (int) (stop - p));
+                    if (read > 0) {
+                        p += read;
+                    } else {
+                        // length より短かったときは 0 で埋める
+                        Arrays.fill(dst, o, o + (int) (stop - p), 0.0);
+                        p = stop;
+                    }
+                }
+            }
+            return (int) Math.max(0, end - position);
+        };
+    }
+
+    public final int getFrameSize() {
+        return frameSize;
+    }
+
+    public final int getHopSize() {
+        return hopSize;
+    }
+
+    /* 各フレームに掛ける窓(長さ frameSize 以上，先頭 frameSize 点を使う)．null なら掛けない */
+    public final AudioPipeline window(final double[] window) {
+        if (window != null && window.length < frameSize)
+            throw new IllegalArgumentException("window is shorter than frameSize: " + window.length);
+        this.window = window;
+        return this;
+    }
+
+    /* true (既定) なら Le4MusicUtils.sliding と同じく先頭が波形内にある全フレームを末尾を 0 で埋めて出す．
+     * false なら波形内に収まるフレームだけを出す */
+    public final AudioPipeline pad(final boolean pad) {
+        this.pad = pad;
+        return this;
+    }
+
+    public final AudioPipeline chunkSize(final int chunkSize) {
+        if (chunkSize < 1)
+            throw new IllegalArgumentException("chunkSize must be positive: " + chunkSize);
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /* 処理段を末尾に追加する */
+    public final AudioPipeline then(final Stage stage) {
+        stages.add(stage);
+        return this;
+    }
+
+    /* 出力先を追加する．複数追加すると同じ結果がそれぞれに渡る */
+    public final AudioPipeline to(final Sink sink) {
+        sinks.add(sink);
+        return this;
+    }
+
+    /* 読み出し元を終端まで処理し，出力したフレーム数を返す．
+     * 途中で例外が起きても全ての出力先を close する(close の例外は元の例外に suppressed として付ける) */
+    public final long run() throws IOException {
+        Throwable failure = null;
+        try {
+            final long frames = pump();
+            for (final Sink sink : sinks)
+                sink.finish();
+            return frames;
+        } catch (Throwable e) {
+            failure = e;
+            throw e;
+        } finally {
+            close(failure);
+        }
+    }
+
+    /* 全ての出力先を close する．1つが失敗しても残りは閉じる */
+    private void close(final Throwable failure) throws IOException {
+        Exception first = null;
+        for (final Sink sink : sinks) {
+            try {
+                sink.close();
+            } catch (IOException | RuntimeException e) {
+                if (failure != null)
+                    failure.addSuppressed(e);
+                else if (first == null)
+                    first = e;
+                else
+                    first.addSuppressed(e);
+            }
+        }
+        if (first instanceof IOException)
+            throw (IOException) first;
+        if (first != null)
+            throw (RuntimeException) first;
+    }
+
+    private long pump() throws IOException {
+        final double[] buffer = new double[Math.max(frameSize, chunkSize) + frameSize];
+        final double[] frame = new double[frameSize];
+        long bufferStart = 0;  // buffer[0] の位置
+        int filled = 0;
+        long next = 0;         // 次のフレームの先頭位置
+        long index = 0;
+
+        while (true) {
+            final int n = source.read(bufferStart + filled, buffer, filled, buffer.length - filled);
+            if (n <= 0)
+                break;
+            filled += n;
+
+            /* バッファ内に収まるフレームを出す */
+            while (next + frameSize <= bufferStart + filled) {
+                System.arraycopy(buffer, (int) (next - bufferStart), frame, 0, frameSize);
+                emit(index++, frame);
+                next += hopSize;
+            }
+
+            /* 次のフレームより前のサンプルは捨てる(hopSize > frameSize なら読み飛ばす) */
+            final long drop = Math.min(next - bufferStart, filled);
+            System.arraycopy(buffer, (int) drop, buffer, 0, filled - (int) drop);
+            filled -= (int) drop;
+            bufferStart += drop;
+            if (filled == 0)
+                bufferStart = next;
+        }
+
+        /* 末尾の足りないフレーム */
+        if (pad) {
+            while (next < bufferStart + filled) {
+                final int n = (int) (bufferStart + filled - next);
+                System.arraycopy(buffer, (int) (next - bufferStart), frame, 0, n);
+                Arrays.fill(frame, n, frameSize, 0.0);
+                emit(index++, frame);
+                next += hopSize;
+            }
+        }
+        return index;
+    }
+
+    private void emit(final long index, final double[] frame) throws IOException {
+        if (window != null)
+            for (int j = 0; j < frameSize; j++)
+                frame[j] *= window[j];
+        double[] values = frame;
+        for (final Stage stage : stages)
+            values = stage.process(values);
+        for (final Sink sink : sinks)
+            sink.accept(index, values);
+    }
+
+}
@@ -0,0 +1,103 @@
+import java.util.Arrays;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* FFT で求めた自己相関関数のピークピッキングによる基本周波数推定
+ * フレーム長 frameSize，シフト長 hopSize で波形全体を走査する */
+public final class AutocorrelationPitchTracker {
+
+    private final double sampleRate;
+    private final int frameSize;
+    private final int hopSize;
+    private final double f0UpperBound;
+    private final int fftSize;
+
+    // 零詰めしたフレームとそのスペクトル・自己相関を置く作業領域
+    private final FFT fft;
+    private final double[] src;
+    private final double[] re;
+    private final double[] im;
+    // 各τについての自己相関関数
+    private final double[] autocorrelationList;
+    private final PeakPicker peakPicker;
+
+    public AutocorrelationPitchTracker(final double sampleRate, final int frameSize,
+                                       final int hopSize, final double f0UpperBound) {
+        this(sampleRate, frameSize, hopSize, f0UpperBound, false);
+    }
+
+    /* interpolate が true ならピークの位置を放物線補間してサブサンプル精度のラグから f0 を求める */
+    public AutocorrelationPitchTracker(final double sampleRate, final int frameSize,
+                                       final int hopSize, final double f0UpperBound,
+                                       final boolean interpolate) {
+        if (frameSize < 4)
+            throw new IllegalArgumentException("frameSize must be at least 4: " + frameSize);
+        if (hopSize < 1)
+            throw new IllegalArgumentException("hopSize must be positive: " + hopSize);
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.f0UpperBound = f0UpperBound;
+        /* 巡回畳み込みにならないようにフレーム長の2倍以上まで零詰めする */
+        this.fftSize = 1 << Le4MusicUtils.nextPow2(2 * frameSize);
+        this.fft = new FFT(fftSize);
+        this.src = new double[fftSize];
+        this.re = new double[fftSize / 2 + 1];
+        this.im = new double[fftSize / 2 + 1];
+        this.autocorrelationList = new double[frameSize + 1];
+        this.peakPicker = new PeakPicker(interpolate);
+    }
+
+    public final int getFrameSize() {
+        return frameSize;
+    }
+
+    public final int getHopSize() {
+        return hopSize;
+    }
+
+    /* 長さ length の波形に対するフレーム数
+     * (これまでの for(k=0;k<N-frameSize-1;k+=hopSize) と同じ数) */
+    public final int getFrames(final int length) {
+        final int last = length - frameSize - 1;
+        return last > 0 ? (last - 1) / hopSize + 1 : 0;
+    }
+
+    /* 波形全体について各フレームの基本周波数を求める．i 番目の値は i*hopSize サンプル目から始まるフレームのもの */
+    public final double[] track(final double[] waveform) {
+        final double[] f0 = new double[getFrames(waveform.length)];
+        for (int i = 0; i < f0.length; i++)
+            f0[i] = estimate(waveform, i * hopSize);
+        return f0;
+    }
+
+    /* offset サンプル目から始まる1フレームの基本周波数．無声・推定不能なら 0 */
+    public final double estimate(final double[] waveform, final int offset) {
+        autocorrelation(waveform, offset);
+
+        // ピークピッキング
+        if (!peakPicker.pick(autocorrelationList, 2, frameSize))
+            return 0.0;
+        final double lag = peakPicker.getPosition();
+        if (sampleRate / lag > f0UpperBound)
+            return 0.0;
+        return sampleRate / lag;
+    }
+
+    /* autocorrelationList[tau] = Σ_j x[j]x[j+tau] (0 <= tau < frameSize)，autocorrelationList[frameSize] = 0 */
+    private void autocorrelation(final double[] waveform, final int offset) {
+        Arrays.fill(src, 0.0);
+        System.arraycopy(waveform, offset, src, 0, Math.min(frameSize, waveform.length - offset));
+
+        /* パワースペクトルの逆フーリエ変換が自己相関関数になる */
+        fft.rfft(src, re, im);
+        for (int i = 0; i < re.length; i++) {
+            re[i] = re[i] * re[i] + im[i] * im[i];
+            im[i] = 0.0;
+        }
+        fft.irfft(re, im, src);
+        System.arraycopy(src, 0, autocorrelationList, 0, frameSize);
+        autocorrelationList[frameSize] = 0.0;
+    }
+
+}
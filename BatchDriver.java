@@ -0,0 +1,256 @@
+import java.lang.invoke.MethodHandles;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileSystems;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.PathMatcher;
+import java.nio.file.Paths;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Semaphore;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.DoubleAdder;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.HelpFormatter;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* 多数の WAV ファイルを並列にまとめて解析し，入力1つにつき1つの出力ファイルを書く
+ *   java BatchDriver PlotSpectrogramCLI -j 4 -d out/ 'data/*.wav'
+ * ファイルの単位で固定数(-j)のワーカーに振り分け，同時に開いているファイルの数も同じ数の2倍までに抑える．
+ * 窓関数は Windows，FFT の係数表は FFTPlan の表をファイル間で使い回す */
+public final class BatchDriver {
+
+    private static final Options options = new Options();
+    private static final String helpMessage =
+        MethodHandles.lookup().lookupClass().getName() + " <TOOL> [OPTIONS] <DIR|GLOB|WAVFILE>...\n"
+        + "TOOL: PlotSpectrogramCLI (<name>.png), PlotFundamentalFreaquency (<name>.f0.csv), "
+        + "ChordRecognition (<name>.chords.csv)";
+
+    static {
+        options.addOption("h", "help", false, "Display this help and exit");
+        options.addOption("j", "jobs", true,
+                          "Number of files processed at once (Default: number of processors)");
+        options.addOption("d", "outdir", true,
+                          "Output directory (Default: the directory of each input)");
+        options.addOption("f", "frame", true,
+                          "Duration of frame [seconds] (Default: " + Le4MusicUtils.frameDuration + ")");
+        options.addOption("s", "shift", true,
+                          "Duration of shift [seconds] (Default: frame/8, PlotSpectrogramCLI only)");
+        options.addOption(null, "acf", false,
+                          "Estimate f0 with autocorrelation peak picking instead of YIN (PlotFundamentalFreaquency only)");
+    }
+
+    /* 1ファイル分の処理．出力したファイルを返す */
+    private interface Tool {
+        File run(WavFileReader reader, File outdir) throws Exception;
+    }
+
+    private BatchDriver() {}
+
+    public static void main(final String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        final CommandLine cmd = new DefaultParser().parse(options, args);
+        final String[] pargs = cmd.getArgs();
+        if (cmd.hasOption("help") || pargs.length < 2) {
+            new HelpFormatter().printHelp(helpMessage, options);
+            if (!cmd.hasOption("help"))
+                System.exit(1);
+            return;
+        }
+
+        final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+                .orElse(Le4MusicUtils.frameDuration);
+        final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
+                .orElse(frameDuration / 8);
+        final Tool tool = tool(pargs[0], frameDuration, shiftDuration, cmd.hasOption("acf"));
+        final int jobs = Optional.ofNullable(cmd.getOptionValue("jobs")).map(Integer::parseInt)
+                .orElse(Runtime.getRuntime().availableProcessors());
+        if (jobs < 1)
+            throw new IllegalArgumentException("jobs must be positive: " + jobs);
+        final File outdir = Optional.ofNullable(cmd.getOptionValue("outdir")).map(File::new).orElse(null);
+        if (outdir != null)
+            Files.createDirectories(outdir.toPath());
+
+        final List<File> files = new ArrayList<>();
+        for (int i = 1; i < pargs.length; i++)
+            files.addAll(expand(pargs[i]));
+        if (files.isEmpty()) {
+            System.out.println("No WAV files found.");
+            System.exit(1);
+        }
+
+        final ExecutorService workers = Executors.newFixedThreadPool(jobs);
+        // 開いたまま待っているファイル(メモリマップ)が増えすぎないようにする
+        final Semaphore inFlight = new Semaphore(2 * jobs);
+        final AtomicInteger done = new AtomicInteger();
+        final AtomicInteger failed = new AtomicInteger();
+        final DoubleAdder audioSeconds = new DoubleAdder();
+
+        final long start = System.nanoTime();
+        final List<CompletableFuture<Void>> futures = new ArrayList<>(files.size());
+        for (final File file : files) {
+            inFlight.acquire();
+            futures.add(CompletableFuture
+                .supplyAsync(() -> open(file), workers)
+                .thenApplyAsync(reader -> {
+                    try {
+                        final File out = tool.run(reader, outdir != null ? outdir : file.getAbsoluteFile().getParentFile());
+                        audioSeconds.add(reader.getDuration());
+                        return out;
+                    } catch (Exception e) {
+                        throw new RuntimeException(e);
+                    } finally {
+                        try {
+                            reader.close();
+                        } catch (IOException e) {
+                            e.printStackTrace();
+                        }
+                    }
+                }, workers)
+                .handle((out, e) -> {
+                    inFlight.release();
+                    if (e != null) {
+                        failed.incrementAndGet();
+                        final Throwable cause = e.getCause() != null && e.getCause().getCause() != null
+                            ? e.getCause().getCause() : e.getCause() != null ? e.getCause() : e;
+                        System.err.println(file + ": " + cause);
+                    } else {
+                        done.incrementAndGet();
+                        System.out.println(file + " -> " + out);
+                    }
+                    return null;
+                }));
+        }
+        CompletableFuture.allOf(futures.toArray(CompletableFuture<?>[]::new)).join();
+        final double elapsed = (System.nanoTime() - start) * 1e-9;
+        workers.shutdown();
+
+        System.out.printf("%d files (%d failed), %.1f s of audio in %.2f s: %.2f files/s, %.1f audio-s/s%n",
+                          done.get(), failed.get(), audioSeconds.sum(), elapsed,
+                          done.get() / elapsed, audioSeconds.sum() / elapsed);
+        if (failed.get() > 0)
+            System.exit(1);
+    }
+
+    private static Tool tool(final String name, final double frameDuration, final double shiftDuration,
+                             final boolean autocorrelation) {
+        switch (name) {
+        case "PlotSpectrogramCLI":
+            return (reader, outdir) -> {
+                final Spectrogram specLog = PlotSpectrogramCLI.spectrogram(reader, frameDuration, shiftDuration,
+                                                                           Spectrogram.Storage.FLOAT);
+                return PlotSpectrogramCLI.chart(specLog, reader.getSampleRate() * 0.5)
+                    .write(Optional.of(output(reader, outdir, ".png").getPath()), PlotSpectrogramCLI.class.getSimpleName());
+            };
+        case "PlotFundamentalFreaquency":
+            return (reader, outdir) -> {
+                final double sampleRate = reader.getSampleRate();
+                /* PlotFundamentalFreaquency と同じく YIN(--acf なら自己相関) */
+                final int frameSize;
+                final int hopSize;
+                final AudioPipeline.Stage f0;
+                if (autocorrelation) {
+                    final AutocorrelationPitchTracker tracker = PlotFundamentalFreaquency.tracker(sampleRate, frameDuration);
+                    frameSize = tracker.getFrameSize();
+                    hopSize = tracker.getHopSize();
+                    f0 = PipelineStages.f0(tracker);
+                } else {
+                    final YinPitchTracker tracker = PlotFundamentalFreaquency.yin(sampleRate, frameDuration);
+                    frameSize = tracker.getFrameSize();
+                    hopSize = tracker.getHopSize();
+                    f0 = PipelineStages.f0(tracker);
+                }
+                final File out = output(reader, outdir, ".f0.csv");
+                try (final BufferedWriter writer = Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8)) {
+                    writer.write("time,f0\n");
+                    new AudioPipeline(AudioPipeline.source(reader), frameSize, hopSize)
+                        .pad(false)
+                        .then(f0)
+                        .to((frame, values) ->
+                            writer.write(frame * hopSize / sampleRate + "," + values[0] + "\n"))
+                        .run();
+                }
+                return out;
+            };
+        case "ChordRecognition":
+            return (reader, outdir) -> {
+                final double sampleRate = reader.getSampleRate();
+                final int hopSize = ChordRecognition.hopSize(sampleRate, frameDuration);
+                final int[] chordNo = ChordRecognition.recognize(reader, frameDuration);
+                final File out = output(reader, outdir, ".chords.csv");
+                try (final BufferedWriter writer = Files.newBufferedWriter(out.toPath(), StandardCharsets.UTF_8)) {
+                    writer.write("time,chord\n");
+                    for (int i = 0; i < chordNo.length; i++)
+                        writer.write((double) i * hopSize / sampleRate + "," + chordNo[i] + "\n");
+                }
+                return out;
+            };
+        default:
+            throw new IllegalArgumentException("Unknown tool: " + name);
+        }
+    }
+
+    /* 入力と同じ名前で拡張子を ext に替えた outdir 内のファイル */
+    private static File output(final WavFileReader reader, final File outdir, final String ext) {
+        final String name = reader.getFile().getName();
+        final int dot = name.lastIndexOf('.');
+        return new File(outdir, (dot > 0 ? name.substring(0, dot) : name) + ext);
+    }
+
+    /* ディレクトリなら中の *.wav を再帰的に，glob ならそれに一致するファイルを，それ以外はそのファイルを返す */
+    private static List<File> expand(final String arg) throws IOException {
+        final Path path = Paths.get(arg);
+        if (Files.isDirectory(path))
+            return walk(path, FileSystems.getDefault().getPathMatcher("glob:**.{wav,WAV}"));
+        if (arg.chars().anyMatch(c -> "*?[{".indexOf(c) >= 0)) {
+            /* glob の文字を含まない先頭のディレクトリから探す */
+            Path base = Paths.get("");
+            for (final Path part : path) {
+                if (part.toString().chars().anyMatch(c -> "*?[{".indexOf(c) >= 0))
+                    break;
+                base = base.resolve(part);
+            }
+            if (path.isAbsolute())
+                base = path.getRoot().resolve(base);
+            return walk(base.toString().isEmpty() ? Paths.get(".") : base,
+                        FileSystems.getDefault().getPathMatcher("glob:" + arg));
+        }
+        final List<File> list = new ArrayList<>();
+        list.add(path.toFile());
+        return list;
+    }
+
+    private static List<File> walk(final Path base, final PathMatcher matcher) throws IOException {
+        try (final Stream<Path> paths = Files.walk(base)) {
+            return paths.filter(Files::isRegularFile)
+                        .map(Path::normalize)
+                        .filter(matcher::matches)
+                        .sorted()
+                        .map(Path::toFile)
+                        .collect(Collectors.toList());
+        }
+    }
+
+    /* ファイルを開き，解析の前にページキャッシュへ読み込んでおく */
+    private static WavFileReader open(final File file) {
+        try {
+            return new WavFileReader(file).load();
+        } catch (Exception e) {
+            throw new RuntimeException(e);
+        }
+    }
+
+}
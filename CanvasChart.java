@@ -0,0 +1,85 @@
+import javafx.geometry.HPos;
+import javafx.geometry.Insets;
+import javafx.geometry.Side;
+import javafx.scene.canvas.Canvas;
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.control.Label;
+import javafx.scene.layout.GridPane;
+import javafx.scene.layout.Pane;
+import javafx.scene.layout.Priority;
+
+/* XYChart の代わりに Canvas へ直接描くチャートの土台
+ * 軸(NumberAxis)とタイトルだけをノードとして置き，データは draw で Canvas に描く．
+ * データの点をノードにしないので，1回の描画の手間は点やフレームの数ではなく画面の大きさで決まる．
+ * データの更新・再描画は JavaFX のスレッドで行うこと．軸の範囲を変えるときはデータの更新より先に変えること */
+public abstract class CanvasChart extends GridPane {
+
+    private final NumberAxis xAxis;
+    private final NumberAxis yAxis;
+    private final Label title = new Label();
+    private final Canvas canvas = new Canvas();
+
+    protected CanvasChart(final NumberAxis xAxis, final NumberAxis yAxis) {
+        this.xAxis = xAxis;
+        this.yAxis = yAxis;
+        xAxis.setSide(Side.BOTTOM);
+        yAxis.setSide(Side.LEFT);
+        title.getStyleClass().add("chart-title");
+
+        /* Canvas は描画領域いっぱいに広げ，大きさが変わったら描き直す */
+        final Pane plot = new Pane(canvas);
+        plot.setMinSize(0.0, 0.0);
+        plot.setPrefSize(0.0, 0.0);
+        canvas.setManaged(false);
+        canvas.widthProperty().bind(plot.widthProperty());
+        canvas.heightProperty().bind(plot.heightProperty());
+        canvas.widthProperty().addListener((obs, oldValue, newValue) -> redraw());
+        canvas.heightProperty().addListener((obs, oldValue, newValue) -> redraw());
+
+        add(title, 0, 0, 2, 1);
+        add(yAxis, 0, 1);
+        add(plot, 1, 1);
+        add(xAxis, 1, 2);
+        GridPane.setHalignment(title, HPos.CENTER);
+        GridPane.setHgrow(plot, Priority.ALWAYS);
+        GridPane.setVgrow(plot, Priority.ALWAYS);
+        setPadding(new Insets(10.0));
+    }
+
+    public final NumberAxis getXAxis() {
+        return xAxis;
+    }
+
+    public final NumberAxis getYAxis() {
+        return yAxis;
+    }
+
+    public final void setTitle(final String text) {
+        title.setText(text);
+    }
+
+    /* Canvas を消して描き直す */
+    public final void redraw() {
+        final double width = canvas.getWidth();
+        final double height = canvas.getHeight();
+        final GraphicsContext gc = canvas.getGraphicsContext2D();
+        gc.clearRect(0.0, 0.0, width, height);
+        if (width > 0.0 && height > 0.0)
+            draw(gc, width, height);
+    }
+
+    /* 大きさ width x height の Canvas にデータを描く */
+    protected abstract void draw(GraphicsContext gc, double width, double height);
+
+    /* X 軸の値 → Canvas の横位置 */
+    protected final double toX(final double x, final double width) {
+        return (x - xAxis.getLowerBound()) / (xAxis.getUpperBound() - xAxis.getLowerBound()) * width;
+    }
+
+    /* Y 軸の値 → Canvas の縦位置 */
+    protected final double toY(final double y, final double height) {
+        return (yAxis.getUpperBound() - y) / (yAxis.getUpperBound() - yAxis.getLowerBound()) * height;
+    }
+
+}
@@ -0,0 +1,310 @@
+import java.awt.BasicStroke;
+import java.awt.Color;
+import java.awt.Font;
+import java.awt.FontMetrics;
+import java.awt.Graphics2D;
+import java.awt.RenderingHints;
+import java.awt.geom.AffineTransform;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Optional;
+import java.util.function.LongToDoubleFunction;
+import javax.imageio.ImageIO;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* JavaFX を使わずに Java2D でチャートを画像にする(ヘッドレス実行用)
+ * 折れ線とスペクトログラムを軸・目盛り付きで描き，Le4MusicUtils.getFilenameWithImageExt と同じ規則のファイルに書き出す．
+ * 折れ線は横1ピクセルごとに最小値・最大値だけを描くので，点の数が多くても描画の手間は画像の幅程度で済む */
+public final class ChartImage {
+
+    // 余白 [px]
+    private static final int marginLeft = 80;
+    private static final int marginRight = 30;
+    private static final int marginTop = 40;
+    private static final int marginBottom = 60;
+
+    // 系列の色(JavaFX の既定の系列色の順)
+    private static final Color[] seriesColors = {
+        new Color(0xf3622d), new Color(0xfba71b), new Color(0x57b757), new Color(0x41a9c9)
+    };
+
+    // スペクトログラムの色の濃淡をつける範囲 [dB]．最大値からこの幅までを塗り分ける
+    private static final double spectrogramRange = 80.0;
+
+    private final int width;
+    private final int height;
+    private String title = "";
+    private String xLabel = "";
+    private String yLabel = "";
+    private double xLower = 0.0;
+    private double xUpper = 1.0;
+    private double yLower = 0.0;
+    private double yUpper = 1.0;
+
+    private Spectrogram spectrogram = null;
+    private double spectrogramNyquist = 0.0;
+
+    private final List<Series> series = new ArrayList<>();
+
+    private static final class Series {
+        final long size;
+        final LongToDoubleFunction x;
+        final LongToDoubleFunction y;
+
+        Series(final long size, final LongToDoubleFunction x, final LongToDoubleFunction y) {
+            this.size = size;
+            this.x = x;
+            this.y = y;
+        }
+    }
+
+    /* JavaFX 版の Scene と同じ大きさ */
+    public ChartImage() {
+        this(800, 600);
+    }
+
+    public ChartImage(final int width, final int height) {
+        if (width <= marginLeft + marginRight || height <= marginTop + marginBottom)
+            throw new IllegalArgumentException("image is too small: " + width + " x " + height);
+        this.width = width;
+        this.height = height;
+    }
+
+    public final ChartImage title(final String title) {
+        this.title = title;
+        return this;
+    }
+
+    public final ChartImage xAxis(final String label, final double lowerBound, final double upperBound) {
+        this.xLabel = label;
+        this.xLower = lowerBound;
+        this.xUpper = upperBound > lowerBound ? upperBound : lowerBound + 1.0;
+        return this;
+    }
+
+    public final ChartImage yAxis(final String label, final double lowerBound, final double upperBound) {
+        this.yLabel = label;
+        this.yLower = lowerBound;
+        this.yUpper = upperBound > lowerBound ? upperBound : lowerBound + 1.0;
+        return this;
+    }
+
+    /* 折れ線の系列を追加する．i 番目の点は (x[i], y[i]) */
+    public final ChartImage line(final double[] x, final double[] y) {
+        return line(Math.min(x.length, y.length), i -> x[(int) i], i -> y[(int) i]);
+    }
+
+    /* 折れ線の系列を追加する．点を配列にせず，描画時に i = 0 ... size-1 について x(i), y(i) を順に求める */
+    public final ChartImage line(final long size, final LongToDoubleFunction x, final LongToDoubleFunction y) {
+        series.add(new Series(size, x, y));
+        return this;
+    }
+
+    /* 背景にスペクトログラムを描く．時刻 0 ... getDuration()，周波数 0 ... nyquist がデータの範囲 */
+    public final ChartImage spectrogram(final Spectrogram spectrogram, final double nyquist) {
+        this.spectrogram = spectrogram;
+        this.spectrogramNyquist = nyquist;
+        return this;
+    }
+
+    public final BufferedImage render() {
+        final BufferedImage image = new BufferedImage(width, height, BufferedImage.TYPE_INT_RGB);
+        final Graphics2D g = image.createGraphics();
+        try {
+            g.setRenderingHint(RenderingHints.KEY_ANTIALIASING, RenderingHints.VALUE_ANTIALIAS_ON);
+            g.setRenderingHint(RenderingHints.KEY_TEXT_ANTIALIASING, RenderingHints.VALUE_TEXT_ANTIALIAS_ON);
+            g.setColor(Color.WHITE);
+            g.fillRect(0, 0, width, height);
+
+            final int plotWidth = width - marginLeft - marginRight;
+            final int plotHeight = height - marginTop - marginBottom;
+
+            if (spectrogram != null)
+                g.drawImage(renderSpectrogram(plotWidth, plotHeight), marginLeft, marginTop, null);
+
+            drawGrid(g, plotWidth, plotHeight);
+
+            g.setClip(marginLeft, marginTop, plotWidth, plotHeight);
+            for (int s = 0; s < series.size(); s++) {
+                g.setColor(seriesColors[s % seriesColors.length]);
+                g.setStroke(new BasicStroke(1.5f));
+                drawSeries(g, series.get(s), plotWidth, plotHeight);
+            }
+            g.setClip(null);
+
+            drawLabels(g, plotWidth, plotHeight);
+        } finally {
+            g.dispose();
+        }
+        return image;
+    }
+
+    /* outfile (-o の値)と既定の名前から Le4MusicUtils と同じ規則でファイル名を決めて書き出し，そのファイルを返す */
+    public final File write(final Optional<String> outfile, final String defaultName) throws IOException {
+        final String[] name_ext = Le4MusicUtils.getFilenameWithImageExt(outfile, defaultName);
+        final File file = new File(name_ext[0] + "." + name_ext[1]);
+        if (!ImageIO.write(render(), name_ext[1], file))
+            throw new IOException("no image writer for: " + name_ext[1]);
+        return file;
+    }
+
+    private double toX(final double x, final int plotWidth) {
+        return marginLeft + (x - xLower) / (xUpper - xLower) * plotWidth;
+    }
+
+    private double toY(final double y, final int plotHeight) {
+        return marginTop + (yUpper - y) / (yUpper - yLower) * plotHeight;
+    }
+
+    private void drawSeries(final Graphics2D g, final Series s, final int plotWidth, final int plotHeight) {
+        /* 横1ピクセルに入る点の最小値・最大値と，最初・最後の点を求めて線でつなぐ */
+        int column = Integer.MIN_VALUE;
+        double first = 0.0, last = 0.0, min = 0.0, max = 0.0;
+        double prevX = Double.NaN, prevY = Double.NaN;
+        for (long i = 0; i < s.size; i++) {
+            final double px = toX(s.x.applyAsDouble(i), plotWidth);
+            final double py = toY(s.y.applyAsDouble(i), plotHeight);
+            if (Double.isNaN(px) || Double.isNaN(py) || Double.isInfinite(py))
+                continue;
+            final int c = (int) Math.floor(px);
+            if (c != column) {
+                if (column != Integer.MIN_VALUE) {
+                    drawColumn(g, column, first, last, min, max, prevX, prevY);
+                    prevX = column;
+                    prevY = last;
+                }
+                column = c;
+                first = last = min = max = py;
+            } else {
+                last = py;
+                min = Math.min(min, py);
+                max = Math.max(max, py);
+            }
+        }
+        if (column != Integer.MIN_VALUE)
+            drawColumn(g, column, first, last, min, max, prevX, prevY);
+    }
+
+    private static void drawColumn(final Graphics2D g, final int column, final double first, final double last,
+                                   final double min, final double max, final double prevX, final double prevY) {
+        if (!Double.isNaN(prevX))
+            g.drawLine((int) Math.round(prevX), (int) Math.round(prevY), column, (int) Math.round(first));
+        if (max - min >= 1.0)
+            g.drawLine(column, (int) Math.round(min), column, (int) Math.round(max));
+    }
+
+    private BufferedImage renderSpectrogram(final int plotWidth, final int plotHeight) {
+        final BufferedImage image = new BufferedImage(plotWidth, plotHeight, BufferedImage.TYPE_INT_RGB);
+        final int frames = spectrogram.getFrames();
+        final int bins = spectrogram.getBins();
+        if (frames == 0)
+            return image;
+
+        /* 色の範囲は最大値から spectrogramRange [dB] 下まで */
+        double top = Double.NEGATIVE_INFINITY;
+        final double[] row = new double[bins];
+        for (int i = 0; i < frames; i++) {
+            spectrogram.getFrame(i, row);
+            for (final double v : row)
+                if (v > top && !Double.isInfinite(v))
+                    top = v;
+        }
+        final double bottom = top - spectrogramRange;
+
+        final double shift = spectrogram.getShiftDuration();
+        for (int px = 0; px < plotWidth; px++) {
+            final double time = xLower + (px + 0.5) / plotWidth * (xUpper - xLower);
+            final int frame = (int) Math.floor(time / shift);
+            if (frame < 0 || frame >= frames)
+                continue;
+            spectrogram.getFrame(frame, row);
+            for (int py = 0; py < plotHeight; py++) {
+                final double freq = yUpper - (py + 0.5) / plotHeight * (yUpper - yLower);
+                final int bin = (int) Math.round(freq / spectrogramNyquist * (bins - 1));
+                if (bin < 0 || bin >= bins)
+                    continue;
+                image.setRGB(px, py, heat((row[bin] - bottom) / (top - bottom)));
+            }
+        }
+        return image;
+    }
+
+    /* 0 ... 1 の値を 黒 → 青 → 赤 → 黄 → 白 の色にする */
+    static int heat(final double v) {
+        final double t = Double.isNaN(v) ? 0.0 : Math.max(0.0, Math.min(1.0, v));
+        final double[][] stops = {{0, 0, 0}, {0, 0, 160}, {200, 0, 60}, {255, 200, 0}, {255, 255, 255}};
+        final double p = t * (stops.length - 1);
+        final int k = Math.min((int) p, stops.length - 2);
+        final double f = p - k;
+        int rgb = 0;
+        for (int c = 0; c < 3; c++)
+            rgb = (rgb << 8) | (int) Math.round(stops[k][c] + (stops[k + 1][c] - stops[k][c]) * f);
+        return rgb;
+    }
+
+    private void drawGrid(final Graphics2D g, final int plotWidth, final int plotHeight) {
+        final Font font = new Font(Font.SANS_SERIF, Font.PLAIN, 11);
+        g.setFont(font);
+        final FontMetrics fm = g.getFontMetrics();
+        final Color grid = spectrogram != null ? new Color(255, 255, 255, 60) : new Color(0xe0e0e0);
+
+        final double xTick = tickUnit(xUpper - xLower);
+        for (double x = Math.ceil(xLower / xTick) * xTick; x <= xUpper + xTick * 1e-9; x += xTick) {
+            final int px = (int) Math.round(toX(x, plotWidth));
+            g.setColor(grid);
+            g.drawLine(px, marginTop, px, marginTop + plotHeight);
+            g.setColor(Color.DARK_GRAY);
+            g.drawLine(px, marginTop + plotHeight, px, marginTop + plotHeight + 5);
+            final String label = format(x, xTick);
+            g.drawString(label, px - fm.stringWidth(label) / 2, marginTop + plotHeight + 8 + fm.getAscent());
+        }
+
+        final double yTick = tickUnit(yUpper - yLower);
+        for (double y = Math.ceil(yLower / yTick) * yTick; y <= yUpper + yTick * 1e-9; y += yTick) {
+            final int py = (int) Math.round(toY(y, plotHeight));
+            g.setColor(grid);
+            g.drawLine(marginLeft, py, marginLeft + plotWidth, py);
+            g.setColor(Color.DARK_GRAY);
+            g.drawLine(marginLeft - 5, py, marginLeft, py);
+            final String label = format(y, yTick);
+            g.drawString(label, marginLeft - 8 - fm.stringWidth(label), py + fm.getAscent() / 2 - 1);
+        }
+
+        g.setColor(Color.DARK_GRAY);
+        g.drawRect(marginLeft, marginTop, plotWidth, plotHeight);
+    }
+
+    private void drawLabels(final Graphics2D g, final int plotWidth, final int plotHeight) {
+        g.setColor(Color.BLACK);
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 16));
+        FontMetrics fm = g.getFontMetrics();
+        g.drawString(title, (width - fm.stringWidth(title)) / 2, marginTop - 14);
+
+        g.setFont(new Font(Font.SANS_SERIF, Font.PLAIN, 13));
+        fm = g.getFontMetrics();
+        g.drawString(xLabel, marginLeft + (plotWidth - fm.stringWidth(xLabel)) / 2, height - 16);
+
+        final AffineTransform saved = g.getTransform();
+        g.rotate(-Math.PI / 2);
+        g.drawString(yLabel, -(marginTop + (plotHeight + fm.stringWidth(yLabel)) / 2), 20);
+        g.setTransform(saved);
+    }
+
+    /* 目盛りの間隔．Le4MusicUtils.autoTickUnit が使えない値を返したときは範囲の 1/10 にする */
+    private static double tickUnit(final double range) {
+        final double tick = Le4MusicUtils.autoTickUnit(range);
+        return tick > 0.0 && !Double.isInfinite(tick) && range / tick <= 100.0 ? tick : range / 10.0;
+    }
+
+    /* 目盛りの間隔に合わせた桁数で書く */
+    private static String format(final double value, final double tick) {
+        final int digits = Math.max(0, (int) Math.ceil(-Math.log10(tick)));
+        final double v = Math.abs(value) < tick * 1e-9 ? 0.0 : value;
+        return String.format("%." + digits + "f", v);
+    }
+
+}
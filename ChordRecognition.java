@@ -1,13 +1,14 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
 import java.util.Arrays;
+import java.util.ArrayList;
+import java.util.List;
 import java.util.Optional;
 import java.util.stream.IntStream;
 import java.util.stream.Collectors;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
 import javax.imageio.ImageIO;
+import javax.sound.sampled.AudioSystem;
+import javax.sound.sampled.Mixer;
 
 import javafx.application.Application;
 import javafx.application.Platform;
@@ -16,6 +17,10 @@ import javafx.scene.Scene;
 import javafx.scene.chart.XYChart;
 import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
+import javafx.scene.control.Label;
+import javafx.scene.layout.VBox;
+import javafx.scene.text.Font;
+import javafx.geometry.Pos;
 import javafx.scene.image.WritableImage;
 import javafx.collections.ObservableList;
 import javafx.collections.FXCollections;
@@ -26,20 +31,24 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.distribution.NormalDistribution;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+import jp.ac.kyoto_u.kuis.le4music.Player;
+import jp.ac.kyoto_u.kuis.le4music.Recorder;
+import static jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils.verbose;
 
 import java.io.IOException;
 import javax.sound.sampled.UnsupportedAudioFileException;
+import javax.sound.sampled.LineUnavailableException;
 import org.apache.commons.cli.ParseException;
 
 public final class ChordRecognition extends Application {
 
     private static final Options options = new Options();
     private static final String helpMessage =
-        MethodHandles.lookup().lookupClass().getName()+" [OPTIONS] <WAVFILE>";
+        MethodHandles.lookup().lookupClass().getName()+" [OPTIONS] <WAVFILE>\n"
+        + MethodHandles.lookup().lookupClass().getName()+" --live [OPTIONS] [<WAVFILE>]";
 
     static {
         /* コマンドラインオプション定義*/
@@ -58,11 +67,32 @@ public final class ChordRecognition extends Application {
                           "Lower bound of frequency [Hz] (Default: 0.0)");
         options.addOption(null, "freq-up", true,
                           "Upper bound of frequency [Hz] (Default: Nyquist)");
+        options.addOption("f", "frame", true,
+                          "Frame duration [seconds] " +
+                          "(Default: " + Le4MusicUtils.frameDuration + ")");
+        options.addOption(null, "live", false,
+                          "Recognize chords in real time while playing WAVFILE " +
+                          "(or recording from the microphone if not given)");
+        options.addOption("m", "mixer", true,
+                          "Index of the Mixer object used with --live. " +
+                          "To check the proper index, use CheckAudioSystem");
+        options.addOption("i", "interval", true,
+                          "Frame notification interval [seconds] with --live " +
+                          "(Default: " + Le4MusicUtils.frameInterval + ")");
+        options.addOption("v", "verbose", false, "Verbose output");
+        options.addOption(null, "cqt", false,
+                          "Compute the chroma with the constant-Q transform over a frame-long window "
+                          + "centred on each chord frame (full semitone Q down to about 17/frame Hz, 84 Hz at 0.2 s) "
+                          + "instead of picking FFT bins");
+        options.addOption(null, "smooth", true,
+                          "Smooth the chord sequence with an HMM whose self-transition probability is this " +
+                          "(e.g. 0.9, Default: no smoothing)");
     }
 
     @Override public final void start(final Stage primaryStage)
         throws IOException,
                UnsupportedAudioFileException,
+               LineUnavailableException,
                ParseException {
         /* コマンドライン引数処理*/
         final String[] args = getParameters().getRaw().toArray(new String[0]);
@@ -73,6 +103,10 @@ public final class ChordRecognition extends Application {
             return;
         }
         final String[] pargs = cmd.getArgs();
+        if (cmd.hasOption("live")) {
+            startLive(primaryStage, cmd, pargs);
+            return;
+        }
         if (pargs.length < 1) {
             System.out.println("WAVFILE is not given.");
             new HelpFormatter().printHelp(helpMessage, options);
@@ -80,61 +114,21 @@ public final class ChordRecognition extends Application {
             return;
         }
         final File wavFile = new File(pargs[0]);
-        /* WAVファイル読み込み */
-        final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
-        final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
-        final AudioFormat format = stream.getFormat();
-        final double sampleRate = format.getSampleRate();
+        /* WAVファイル読み込み（メモリマップし，各フレームを必要になったときに読む） */
+        final WavFileReader reader = new WavFileReader(wavFile);
+        final double sampleRate = reader.getSampleRate();
         final double nyquist = sampleRate * 0.5;
-        stream.close();
 
 
         /* 窓関数とFFTのサンプル数 */
         final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
                 .orElse(Le4MusicUtils.frameDuration);
-        final int frameSize = (int) Math.round(frameDuration * sampleRate);
-
-        
-        // これが各フレーム長さ
-        int forFrameSize = frameSize/8;
-        int hopsize =forFrameSize/2;
+        final int hopsize = hopSize(sampleRate, frameDuration);
 
-        /* fftSize = 2ˆp >= forFrameSize を満たすfftSize を求める
-            * 2ˆp はシフト演算で求める*/
-        final int fftSize = 1 << Le4MusicUtils.nextPow2(forFrameSize);
-        final int fftSize2 = (fftSize >> 1) + 1; //s^(p-1)+1 ??
-        
-        
-        int N = waveform.length;
-        int chordNo[] = new int[(N-forFrameSize-1)/hopsize+1];
-        for(int frameIndex=0;frameIndex<N-forFrameSize-1;frameIndex+=hopsize){ //すべてのフレームについて
-
-            // そのフレームにおける配列,
-            final double[] frameArray = Arrays.copyOfRange(waveform, frameIndex,frameIndex+forFrameSize);
-
-            /* 信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める．
-            * 振幅を信号長で正規化する． */
-            final double[] src =
-                Arrays.stream(Arrays.copyOf(frameArray, fftSize))
-                    .map(w -> w / forFrameSize)
-                    .toArray();
-            /* 高速フーリエ変換を行う*/
-            final Complex[] spectrum = Le4MusicUtils.rfft(src); // 2^p -> 2^(p-1)+1
-
-            double cv[] = new double[12];
-            for(int noteNumber=36;noteNumber<96;noteNumber++){
-                int arrayIndex = (int) Math.round(Le4MusicUtils.nn2hz(noteNumber)*spectrum.length/sampleRate);
-                cv[noteNumber%12] += (spectrum[arrayIndex]).abs();
-            }            
-
-            double chords[] = new double[24];
-            for(int chordIndex=0;chordIndex<24;chordIndex++){
-                int index = (int) chordIndex/2;
-                if(chordIndex%2!=0){ chords[chordIndex] = cv[index] + cv[(index+3)%12] + cv[(index+7)%12];}
-                else{ chords[chordIndex] = cv[index] + cv[(index+4)%12] + cv[(index+7)%12]; }
-            }
-            chordNo[frameIndex/hopsize] = Le4MusicUtils.argmax(chords);
-        }
+        // 各フレームのコード番号
+        final double stay = Optional.ofNullable(cmd.getOptionValue("smooth")).map(Double::parseDouble).orElse(0.0);
+        final int chordNo[] = recognize(reader, frameDuration, stay, cmd.hasOption("cqt"));
+        reader.close();
 
 
         /* データ系列を作成*/
@@ -213,4 +207,136 @@ public final class ChordRecognition extends Application {
         });
     }
 
-}
\ No newline at end of file
+    /* 再生中(WAVFILE があるとき)または録音中のフレームから和音をその場で認識し，変わるたびに表示する */
+    private void startLive(final Stage primaryStage, final CommandLine cmd, final String[] pargs)
+        throws IOException,
+               UnsupportedAudioFileException,
+               LineUnavailableException {
+        verbose = cmd.hasOption("verbose");
+        final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+                .orElse(Le4MusicUtils.frameDuration);
+        final double interval = Optional.ofNullable(cmd.getOptionValue("interval")).map(Double::parseDouble)
+                .orElse(Le4MusicUtils.frameInterval);
+        final Optional<Mixer.Info> mixer = Optional.ofNullable(cmd.getOptionValue("mixer"))
+                .map(Integer::parseInt)
+                .map(index -> AudioSystem.getMixerInfo()[index]);
+
+        final Label chordLabel = new Label("-");
+        chordLabel.setFont(Font.font(96));
+        final Label timeLabel = new Label("0.00");
+        final VBox box = new VBox(10, chordLabel, timeLabel);
+        box.setAlignment(Pos.CENTER);
+
+        /* 和音が変わったときだけ JavaFX のスレッドへ渡す(フレームごとには渡さない)．
+         * 音声のスレッドでは表示も出力もしない */
+        final RealtimeChordRecognizer.Listener listener = (chord, time) -> {
+            final String name = chord == RealtimeChordRecognizer.silent ? "-" : ChordScorer.name(chord);
+            Platform.runLater(() -> {
+                chordLabel.setText(name);
+                timeLabel.setText(String.format("%.2f", time));
+                if (verbose)
+                    System.out.printf("%.2f\t%s%n", time, name);
+            });
+        };
+        final RealtimeChordRecognizer recognizer;
+        final Runnable startAudio;
+        if (pargs.length > 0) {
+            final Player.Builder builder = Player.builder(new File(pargs[0]));
+            mixer.ifPresent(builder::mixer);
+            builder.frameDuration(frameDuration);
+            builder.interval(interval);
+            builder.daemon();
+            final Player player = builder.build();
+            recognizer = new RealtimeChordRecognizer(player.getSampleRate(),
+                                                     frameSize(player.getSampleRate(), frameDuration), listener);
+            player.addAudioFrameListener((frame, position) -> recognizer.accept(frame, position));
+            startAudio = player::start;
+        } else {
+            final Recorder.Builder builder = Recorder.builder();
+            mixer.ifPresent(builder::mixer);
+            builder.frameDuration(frameDuration);
+            builder.interval(interval);
+            builder.daemon();
+            final Recorder recorder = builder.build();
+            recognizer = new RealtimeChordRecognizer(recorder.getSampleRate(),
+                                                     frameSize(recorder.getSampleRate(), frameDuration), listener);
+            recorder.addAudioFrameListener((frame, position) -> recognizer.accept(frame, position));
+            startAudio = recorder::start;
+        }
+
+        final Scene scene = new Scene(box, 400, 300);
+        scene.getStylesheets().add("src/le4music.css");
+        primaryStage.setScene(scene);
+        primaryStage.setTitle(getClass().getName());
+        /* 1フレームの処理時間はフレームの通知間隔に比べて十分短いこと */
+        primaryStage.setOnCloseRequest(req -> {
+            if (verbose)
+                System.out.println(recognizer + String.format(" (interval %.1f ms)", interval * 1e3));
+        });
+        primaryStage.show();
+
+        Platform.runLater(startAudio);
+    }
+
+    /* 各フレームのコード番号(0 ... 23，偶数がメジャー・奇数がマイナー)．
+     * i 番目の値は i*hopSize(sampleRate, frameDuration) サンプル目から始まるフレームのもの */
+    static int[] recognize(final WavFileReader reader, final double frameDuration) throws IOException {
+        return recognize(reader, frameDuration, 0.0, false);
+    }
+
+    /* stay > 0 なら，同じ和音に留まる確率を stay とした HMM で和音の列を平滑化する(ViterbiDecoder.defaultLag フレーム遅れで決める)．
+     * constantQ ならクロマベクトルを FFT のビンではなく定Q変換から求める */
+    static int[] recognize(final WavFileReader reader, final double frameDuration, final double stay,
+                           final boolean constantQ) throws IOException {
+        final double sampleRate = reader.getSampleRate();
+
+        // これが各フレーム長さ
+        int forFrameSize = frameSize(sampleRate, frameDuration);
+        int hopsize =hopSize(sampleRate, frameDuration);
+
+        // 各フレームのコード番号
+        final IntStream.Builder chordList = IntStream.builder();
+
+        /* WAVファイルをチャンクごとに読みながら，フレームを振幅で正規化 → FFT → クロマベクトル → コード認識 と流す
+         * (長さが足りない部分は FFT の中で0 で埋められる．クロマベクトルは和音のテンプレートと照合する．
+         * --live の RealtimeChordRecognizer と同じ ChromaExtractor.frameStage を使う) */
+        final AudioPipeline pipeline;
+        if (constantQ) {
+            /* 定Q変換は低い音ほど長いカーネルが要るので，forFrameSize のフレームを中心に前後を延ばした
+             * frameDuration の長さのフレームから求める(中心の位置とフレーム数は FFT のときと同じ) */
+            final int lead = (int) (Math.round(frameDuration * sampleRate) - forFrameSize) / 2;
+            final int cqFrameSize = forFrameSize + 2 * lead;
+            pipeline = new AudioPipeline(AudioPipeline.padded(AudioPipeline.source(reader), reader.getLength(), lead),
+                                         cqFrameSize, hopsize)
+                .pad(false)
+                .then(PipelineStages.scale(1.0 / forFrameSize))
+                .then(ConstantQ.of(cqFrameSize, 1 << Le4MusicUtils.nextPow2(cqFrameSize), sampleRate).chromaStage());
+        } else {
+            pipeline = new AudioPipeline(AudioPipeline.source(reader), forFrameSize, hopsize)
+                .pad(false)
+                .then(ChromaExtractor.frameStage(forFrameSize, sampleRate));
+        }
+        if (stay > 0.0) {
+            pipeline
+                .then(ChordScorer.triads().logStage())
+                .to(ViterbiDecoder.sticky(ChordScorer.chords, stay).fixedLag(ViterbiDecoder.defaultLag).sink(chordList::add));
+        } else {
+            pipeline
+                .then(ChordScorer.triads().stage())
+                .to((frame, chord) -> chordList.add((int) chord[0]));
+        }
+        pipeline.run();
+        return chordList.build().toArray();
+    }
+
+    /* 和音認識のフレーム長 [samples]．frameDuration の 1/8 */
+    static int frameSize(final double sampleRate, final double frameDuration) {
+        return (int) Math.round(frameDuration * sampleRate) / 8;
+    }
+
+    /* フレームのシフト長 [samples]．フレーム長は frameDuration の 1/8，シフトはその半分 */
+    static int hopSize(final double sampleRate, final double frameDuration) {
+        return frameSize(sampleRate, frameDuration) / 2;
+    }
+
+}
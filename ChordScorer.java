@@ -0,0 +1,89 @@
+/* クロマベクトルと和音のテンプレートの照合
+ * 和音 c (0 ... 23，偶数がメジャー・奇数がマイナー，根音は c/2) のテンプレートを 24×12 の行列に並べておき，
+ * 点数はクロマベクトルとの内積(行列とベクトルの積，288 回の掛け算と足し算)とする */
+public final class ChordScorer {
+
+    public static final int chords = 24;
+
+    private static final String[] noteNames = {"C", "C#", "D", "D#", "E", "F", "F#", "G", "G#", "A", "A#", "B"};
+
+    // templates[c * 12 + pc]
+    private final double[] templates = new double[chords * 12];
+
+    /* templates[c][pc] は和音 c の音名 pc の重み */
+    public ChordScorer(final double[][] templates) {
+        if (templates.length != chords)
+            throw new IllegalArgumentException("templates must have " + chords + " rows: " + templates.length);
+        for (int c = 0; c < chords; c++) {
+            if (templates[c].length != 12)
+                throw new IllegalArgumentException("template " + c + " must have 12 columns: " + templates[c].length);
+            System.arraycopy(templates[c], 0, this.templates, c * 12, 12);
+        }
+    }
+
+    /* 根音・長3度(短3度)・完全5度に重み1を置いた三和音のテンプレート(ChordRecognition の元の照合と同じ) */
+    public static ChordScorer triads() {
+        final double[][] t = new double[chords][12];
+        for (int c = 0; c < chords; c++) {
+            final int root = c / 2;
+            t[c][root] = 1.0;
+            t[c][(root + (c % 2 == 0 ? 4 : 3)) % 12] = 1.0;
+            t[c][(root + 7) % 12] = 1.0;
+        }
+        return new ChordScorer(t);
+    }
+
+    /* 和音の名前(C, Cm, C#, C#m, ...) */
+    public static String name(final int chord) {
+        if (chord < 0 || chord >= chords)
+            throw new IllegalArgumentException("chord must be in [0, " + chords + "): " + chord);
+        return noteNames[chord / 2] + (chord % 2 == 0 ? "" : "m");
+    }
+
+    /* 各和音の点数を scores[0 ... 23] に書く */
+    public final void score(final double[] chroma, final double[] scores) {
+        for (int c = 0; c < chords; c++) {
+            double acc = 0.0;
+            for (int pc = 0; pc < 12; pc++)
+                acc += templates[c * 12 + pc] * chroma[pc];
+            scores[c] = acc;
+        }
+    }
+
+    /* 最も点数の大きい和音(同点なら番号の小さいもの)．scores は 24 個以上の作業領域 */
+    public final int best(final double[] chroma, final double[] scores) {
+        score(chroma, scores);
+        int best = 0;
+        for (int c = 1; c < chords; c++)
+            if (scores[c] > scores[best])
+                best = c;
+        return best;
+    }
+
+    /* AudioPipeline の処理段(入力はクロマベクトル，出力は各和音の点数の割合の対数 24 個)．
+     * 点数の割合を和音の尤度とみなして ViterbiDecoder に渡す用 */
+    public final AudioPipeline.Stage logStage() {
+        final double[] out = new double[chords];
+        return in -> {
+            score(in, out);
+            double sum = 0.0;
+            for (int c = 0; c < chords; c++)
+                sum += Math.max(out[c], 0.0);
+            // 無音などで点数がすべて 0 ならどの和音も同じ尤度にする
+            for (int c = 0; c < chords; c++)
+                out[c] = sum > 0.0 ? Math.log(Math.max(out[c], 0.0) / sum + 1e-12) : -Math.log(chords);
+            return out;
+        };
+    }
+
+    /* AudioPipeline の処理段(入力はクロマベクトル，出力は和音の番号1つ) */
+    public final AudioPipeline.Stage stage() {
+        final double[] scores = new double[chords];
+        final double[] out = new double[1];
+        return in -> {
+            out[0] = best(in, scores);
+            return out;
+        };
+    }
+
+}
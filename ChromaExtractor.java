@@ -0,0 +1,117 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* 振幅スペクトルからクロマベクトル(12 次元)を求める
+ * ノートナンバー 36 ... 95 の各音について，その周波数の近くのビンに三角形の重みを付けて振幅を集める．
+ * 三角形の半幅は半音の半分(ビン幅より狭いときは1ビン，つまり両隣のビンの線形補間)で，重みの和は音ごとに1．
+ * (ビン, 音名, 重み) の組は (fftSize, sampleRate) ごとに1度だけ作って共有するので，
+ * 1フレームの手間はその組の数(百数十)の掛け算と足し算だけで済む */
+public final class ChromaExtractor {
+
+    public static final int lowestNote = 36;
+    public static final int highestNote = 95;
+
+    private static final ConcurrentHashMap<Long, ChromaExtractor> cache = new ConcurrentHashMap<>();
+
+    private final int fftSize;
+    private final double sampleRate;
+    // 組ごとのビン，音名(0 = C)，重み
+    private final int[] bins;
+    private final int[] pitchClasses;
+    private final double[] weights;
+
+    private ChromaExtractor(final int fftSize, final double sampleRate) {
+        this.fftSize = fftSize;
+        this.sampleRate = sampleRate;
+        final int maxBin = fftSize / 2;
+        // [音名][ビン] の重み(作るときだけ使う)
+        final double[][] map = new double[12][maxBin + 1];
+        for (int nn = lowestNote; nn <= highestNote; nn++) {
+            final double center = Le4MusicUtils.nn2hz(nn) * fftSize / sampleRate;
+            if (center >= maxBin)
+                break;
+            final double halfWidth = Math.max(1.0, center * (Math.pow(2.0, 1.0 / 24.0) - 1.0));
+            final int from = Math.max(0, (int) Math.ceil(center - halfWidth));
+            final int to = Math.min(maxBin, (int) Math.floor(center + halfWidth));
+            double sum = 0.0;
+            for (int k = from; k <= to; k++)
+                sum += Math.max(0.0, 1.0 - Math.abs(k - center) / halfWidth);
+            for (int k = from; k <= to; k++)
+                map[nn % 12][k] += Math.max(0.0, 1.0 - Math.abs(k - center) / halfWidth) / sum;
+        }
+        int n = 0;
+        for (final double[] row : map)
+            for (final double w : row)
+                if (w > 0.0)
+                    n++;
+        this.bins = new int[n];
+        this.pitchClasses = new int[n];
+        this.weights = new double[n];
+        /* ビンの順に並べる(スペクトルを先頭から1度なめるだけになる) */
+        int e = 0;
+        for (int k = 0; k <= maxBin; k++)
+            for (int pc = 0; pc < 12; pc++)
+                if (map[pc][k] > 0.0) {
+                    bins[e] = k;
+                    pitchClasses[e] = pc;
+                    weights[e] = map[pc][k];
+                    e++;
+                }
+    }
+
+    /* fftSize 点の FFT の振幅スペクトル用(共有される) */
+    public static ChromaExtractor of(final int fftSize, final double sampleRate) {
+        if (fftSize < 2)
+            throw new IllegalArgumentException("fftSize must be at least 2: " + fftSize);
+        if (sampleRate <= 0.0)
+            throw new IllegalArgumentException("sampleRate must be positive: " + sampleRate);
+        final long key = ((long) fftSize << 32) | (Float.floatToIntBits((float) sampleRate) & 0xffffffffL);
+        return cache.computeIfAbsent(key, k -> new ChromaExtractor(fftSize, sampleRate));
+    }
+
+    public final int getFFTSize() {
+        return fftSize;
+    }
+
+    public final double getSampleRate() {
+        return sampleRate;
+    }
+
+    /* 1フレームあたりの掛け算の回数 */
+    public final int getNonZeros() {
+        return weights.length;
+    }
+
+    /* spectrum (fftSize/2+1 点の振幅スペクトル) のクロマベクトルを chroma[0 ... 11] に書く */
+    public final void extract(final double[] spectrum, final double[] chroma) {
+        if (spectrum.length < fftSize / 2 + 1)
+            throw new IllegalArgumentException("spectrum is shorter than fftSize/2+1: " + spectrum.length);
+        Arrays.fill(chroma, 0, 12, 0.0);
+        for (int e = 0; e < weights.length; e++)
+            chroma[pitchClasses[e]] += weights[e] * spectrum[bins[e]];
+    }
+
+    /* 和音認識の前処理をまとめた処理段(入力は frameSize サンプルのフレーム，出力はクロマベクトル)．
+     * 窓は掛けずにフレーム長で正規化し，fftSize = 2^p >= frameSize 点まで 0 で埋めた FFT の振幅からクロマベクトルを求める．
+     * ChordRecognition(ファイル)と RealtimeChordRecognizer(再生・録音)が同じ前処理になるようにこれを使う．
+     * FFT を持つので使う側ごとに作ること */
+    public static AudioPipeline.Stage frameStage(final int frameSize, final double sampleRate) {
+        final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
+        final AudioPipeline.Stage scale = PipelineStages.scale(1.0 / frameSize);
+        final AudioPipeline.Stage magnitude = PipelineStages.magnitude(fftSize);
+        final AudioPipeline.Stage chroma = of(fftSize, sampleRate).stage();
+        return in -> chroma.process(magnitude.process(scale.process(in)));
+    }
+
+    /* AudioPipeline の処理段(入力は振幅スペクトル) */
+    public final AudioPipeline.Stage stage() {
+        final double[] out = new double[12];
+        return in -> {
+            extract(in, out);
+            return out;
+        };
+    }
+
+}
@@ -0,0 +1,209 @@
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* 定Q変換(ノートナンバーごとの振幅)を FFT の結果から求める(Brown & Puckette の方法)
+ * ノートナンバー nn の成分は，中心周波数 f = nn2hz(nn)，長さ Q*sampleRate/f (Q = 1/(2^(1/12)-1)) の
+ * ハミング窓を掛けた複素正弦波との内積とする．この複素正弦波(カーネル)の FFT は f の近くにしか値を持たないので，
+ * 小さい値を捨てた疎なスペクトルカーネルを (frameSize, fftSize, sampleRate) ごとに1度だけ作って共有し，
+ * フレームの FFT の結果との内積で求める．1フレームの手間は FFT 1回とカーネルの非零要素の数の掛け算と足し算．
+ * 低い音ほどカーネルが長く，線形の FFT ビン1つを読むより周波数の分解能がよいが，
+ * カーネルの長さはフレーム長を超えられないので，それより長くなる低い音(f < Q * sampleRate / frameSize)は Q が小さくなる．
+ * 低い音の分解能を上げるには，解析したいフレームより長いフレームを渡すこと
+ * (ChordRecognition は和音のフレームを中心に frameDuration まで延ばしたフレームを AudioPipeline.padded で作って渡す)．
+ * 短いフレーム(400 サンプル，16 kHz なら 670 Hz 未満の音がすべて同じ長さ)のままでは FFT のビンを拾うのと分解能は変わらない */
+public final class ConstantQ {
+
+    // 半音ごとに分けるときの Q
+    public static final double q = 1.0 / (Math.pow(2.0, 1.0 / 12.0) - 1.0);
+
+    // カーネルの最大値に対してこれより小さい値は捨てる
+    private static final double threshold = 0.01;
+
+    private static final ConcurrentHashMap<List<Object>, ConstantQ> cache = new ConcurrentHashMap<>();
+
+    private final int frameSize;
+    private final int fftSize;
+    private final double sampleRate;
+    private final int lowNote;
+    private final int notes;
+    // ノート k のカーネルは start[k] ... start[k+1]-1 番目の (ビン, 実部, 虚部)
+    private final int[] start;
+    private final int[] bins;
+    private final double[] kernelRe;
+    private final double[] kernelIm;
+
+    private ConstantQ(final int frameSize, final int fftSize, final double sampleRate,
+                      final int lowNote, final int highNote) {
+        this.frameSize = frameSize;
+        this.fftSize = fftSize;
+        this.sampleRate = sampleRate;
+        this.lowNote = lowNote;
+        final FFT fft = new FFT(fftSize);
+        final double[] wr = new double[fftSize];
+        final double[] wi = new double[fftSize];
+        final double[] ar = new double[fft.getBins()];
+        final double[] ai = new double[fft.getBins()];
+        final double[] br = new double[fft.getBins()];
+        final double[] bi = new double[fft.getBins()];
+        final double[][] re = new double[highNote - lowNote + 1][];
+        final double[][] im = new double[highNote - lowNote + 1][];
+        final int[][] index = new int[highNote - lowNote + 1][];
+        int count = 0;
+        int n = 0;
+        for (int nn = lowNote; nn <= highNote; nn++, n++) {
+            final double f = Le4MusicUtils.nn2hz(nn);
+            if (f >= sampleRate / 2)
+                break;
+            /* フレームの中央に置いた長さ length の時間カーネル(実部と虚部を別々に FFT して組み合わせる) */
+            final int length = (int) Math.max(2, Math.min(frameSize, Math.round(q * sampleRate / f)));
+            final int offset = (frameSize - length) / 2;
+            Arrays.fill(wr, 0.0);
+            Arrays.fill(wi, 0.0);
+            for (int i = 0; i < length; i++) {
+                final double w = (0.54 - 0.46 * Math.cos(2.0 * Math.PI * i / (length - 1))) / length;
+                final double phase = 2.0 * Math.PI * f * i / sampleRate;
+                wr[offset + i] = w * Math.cos(phase);
+                wi[offset + i] = w * Math.sin(phase);
+            }
+            fft.rfft(wr, ar, ai);
+            fft.rfft(wi, br, bi);
+            /* FFT(wr + i wi) = FFT(wr) + i FFT(wi) の正の周波数側 */
+            final double[] kr = new double[fft.getBins()];
+            final double[] ki = new double[fft.getBins()];
+            double max = 0.0;
+            for (int j = 0; j < kr.length; j++) {
+                kr[j] = ar[j] - bi[j];
+                ki[j] = ai[j] + br[j];
+                max = Math.max(max, Math.hypot(kr[j], ki[j]));
+            }
+            int nz = 0;
+            for (int j = 0; j < kr.length; j++)
+                if (Math.hypot(kr[j], ki[j]) >= threshold * max)
+                    nz++;
+            index[n] = new int[nz];
+            re[n] = new double[nz];
+            im[n] = new double[nz];
+            for (int j = 0, e = 0; j < kr.length; j++)
+                if (Math.hypot(kr[j], ki[j]) >= threshold * max) {
+                    index[n][e] = j;
+                    re[n][e] = kr[j];
+                    im[n][e] = ki[j];
+                    e++;
+                }
+            count += nz;
+        }
+        this.notes = n;
+        this.start = new int[notes + 1];
+        this.bins = new int[count];
+        this.kernelRe = new double[count];
+        this.kernelIm = new double[count];
+        for (int k = 0, e = 0; k < notes; k++) {
+            start[k] = e;
+            System.arraycopy(index[k], 0, bins, e, index[k].length);
+            System.arraycopy(re[k], 0, kernelRe, e, re[k].length);
+            System.arraycopy(im[k], 0, kernelIm, e, im[k].length);
+            e += index[k].length;
+            start[k + 1] = e;
+        }
+    }
+
+    /* ノートナンバー ChromaExtractor.lowestNote ... highestNote の定Q変換(共有される) */
+    public static ConstantQ of(final int frameSize, final int fftSize, final double sampleRate) {
+        return of(frameSize, fftSize, sampleRate, ChromaExtractor.lowestNote, ChromaExtractor.highestNote);
+    }
+
+    /* フレーム長 frameSize を fftSize 点まで 0 で埋めて FFT したもの用．ナイキスト周波数以上の音は除く(共有される) */
+    public static ConstantQ of(final int frameSize, final int fftSize, final double sampleRate,
+                               final int lowNote, final int highNote) {
+        if (frameSize < 2 || fftSize < frameSize)
+            throw new IllegalArgumentException("invalid size: frameSize = " + frameSize + ", fftSize = " + fftSize);
+        if (sampleRate <= 0.0)
+            throw new IllegalArgumentException("sampleRate must be positive: " + sampleRate);
+        if (lowNote < 0 || highNote < lowNote)
+            throw new IllegalArgumentException("invalid notes: " + lowNote + " ... " + highNote);
+        return cache.computeIfAbsent(List.of(frameSize, fftSize, sampleRate, lowNote, highNote),
+                                     key -> new ConstantQ(frameSize, fftSize, sampleRate, lowNote, highNote));
+    }
+
+    public final int getFrameSize() {
+        return frameSize;
+    }
+
+    public final int getFFTSize() {
+        return fftSize;
+    }
+
+    public final int getLowNote() {
+        return lowNote;
+    }
+
+    /* 出力するノートの数(lowNote から順に) */
+    public final int getNotes() {
+        return notes;
+    }
+
+    /* 1フレームあたりの複素数の掛け算の回数 */
+    public final int getNonZeros() {
+        return bins.length;
+    }
+
+    /* fftSize 点の FFT の結果 re, im (fftSize/2+1 点) から，ノート lowNote+k の振幅を out[k] に書く */
+    public final void transform(final double[] re, final double[] im, final double[] out) {
+        if (re.length < fftSize / 2 + 1 || im.length < fftSize / 2 + 1)
+            throw new IllegalArgumentException("spectrum is shorter than fftSize/2+1: " + re.length);
+        final double scale = 2.0 / fftSize;
+        for (int k = 0; k < notes; k++) {
+            double sr = 0.0, si = 0.0;
+            for (int e = start[k]; e < start[k + 1]; e++) {
+                final int j = bins[e];
+                // X[j] * conj(K[j])
+                sr += re[j] * kernelRe[e] + im[j] * kernelIm[e];
+                si += im[j] * kernelRe[e] - re[j] * kernelIm[e];
+            }
+            out[k] = scale * Math.sqrt(sr * sr + si * si);
+        }
+    }
+
+    /* 定Q変換の結果を音名ごとに足してクロマベクトル(12 次元)にする */
+    public final void chroma(final double[] cq, final double[] chroma) {
+        Arrays.fill(chroma, 0, 12, 0.0);
+        for (int k = 0; k < notes; k++)
+            chroma[(lowNote + k) % 12] += cq[k];
+    }
+
+    /* 最も振幅の大きいノートナンバー */
+    public final int dominantNote(final double[] cq) {
+        int best = 0;
+        for (int k = 1; k < notes; k++)
+            if (cq[k] > cq[best])
+                best = k;
+        return lowNote + best;
+    }
+
+    /* AudioPipeline の処理段(入力はフレーム，出力は各ノートの振幅)．FFT を持つのでパイプラインごとに作ること */
+    public final AudioPipeline.Stage stage() {
+        final FFT fft = new FFT(fftSize);
+        final double[] re = new double[fft.getBins()];
+        final double[] im = new double[fft.getBins()];
+        final double[] out = new double[notes];
+        return in -> {
+            fft.rfft(in, re, im);
+            transform(re, im, out);
+            return out;
+        };
+    }
+
+    /* AudioPipeline の処理段(入力はフレーム，出力はクロマベクトル) */
+    public final AudioPipeline.Stage chromaStage() {
+        final AudioPipeline.Stage cq = stage();
+        final double[] out = new double[12];
+        return in -> {
+            chroma(cq.process(in), out);
+            return out;
+        };
+    }
+
+}
@@ -5,7 +5,6 @@ import java.util.Arrays;
 import java.util.ArrayList;
 import java.util.HashMap;
 import java.util.Optional;
-import java.util.stream.Stream;
 import java.util.stream.IntStream;
 import java.util.stream.Collectors;
 import javax.sound.sampled.AudioSystem;
@@ -27,6 +26,7 @@ import javafx.geometry.HPos;
 import javafx.stage.Stage;
 import javafx.scene.Scene;
 import javafx.scene.chart.XYChart;
+import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.control.Label;
 import javafx.scene.image.WritableImage;
@@ -42,7 +42,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.distribution.NormalDistribution;
 import org.apache.commons.math3.util.MathArrays;
 
@@ -102,6 +101,9 @@ public final class Ex1 extends Application {
         options.addOption("a", "amp-bounds", true,
                         "Upper(+) and lower(-) bounds in the amplitude direction " +
                         "(Default: " + Le4MusicUtils.waveformAmplitudeBounds + ")");
+        options.addOption(null, "model", true,
+                        "Vowel model file written by TrainVowelModel " +
+                        "(Default: train from a.wav, i.wav, u.wav, e.wav and o.wav)");
     }
 
     @Override public final void start(final Stage primaryStage)
@@ -134,7 +136,9 @@ public final class Ex1 extends Application {
         wavFileList[5] = new File(pargs[0]);  //認識対象のファイル
         final AudioInputStream[] streamList =  new AudioInputStream[6];
         final double[][] waveformList = new double[6][];
-        for(int i=0;i<6;i++){
+        /* 学習済みのモデルがあれば，学習用の音声は読まずにその平均と標準偏差を使う */
+        final VowelModel model = cmd.hasOption("model") ? VowelModel.load(new File(cmd.getOptionValue("model"))) : null;
+        for(int i=model!=null?5:0;i<6;i++){
             streamList[i] = AudioSystem.getAudioInputStream(wavFileList[i]);
             waveformList[i] = Le4MusicUtils.readWaveformMonaural(streamList[i]);
         }
@@ -142,10 +146,10 @@ public final class Ex1 extends Application {
 
 
         // final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
-        final AudioFormat format = streamList[0].getFormat();
+        final AudioFormat format = streamList[5].getFormat();
         final double sampleRate = format.getSampleRate();
         final double nyquist = sampleRate * 0.5;
-        streamList[0].close();
+        streamList[5].close();
 
         /* 窓関数とFFTのサンプル数 */
         final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
@@ -171,64 +175,59 @@ public final class Ex1 extends Application {
         // ここに各dのcepstrumを足していく。
         final double[][] avgCepstrumArray = new double[5][NumOfCepstrum];
         final double[][] varCepstrumArray = new double[5][NumOfCepstrum];     
-
+        // 認識結果のクラス番号から母音への対応
+        final String[] vowels = {"a", "i", "u", "e", "o"};
+
+        // フレームごとに使い回す作業領域
+        final FFT fft = new FFT(fftSize);
+        final FFT cepstrumFFT = new FFT(fftSize3);
+        final double[] src = new double[fftSize];
+        final double[] re = new double[fftSize2];
+        final double[] im = new double[fftSize2];
+        final double[] frameSpecLog = new double[fftSize2];
+        final double[] cepstrumRe = new double[fftSize4];
+        final double[] cepstrumIm = new double[fftSize4];
         
-        for(int charNo=0;charNo<5;charNo++){ //それぞれの母音について平均と分散を出す。
+        if (model != null) {
+            if (model.getSampleRate() != sampleRate || model.getFrameSize() != forFrameSize
+                || model.getHopSize() != hopsize || model.getOrder() != NumOfCepstrum || model.getLabels().size() != 5)
+                throw new IllegalArgumentException("model does not match the frame parameters: " + model);
+            for(int charNo=0;charNo<5;charNo++){
+                avgCepstrumArray[charNo] = model.getMean(charNo);
+                varCepstrumArray[charNo] = model.getStd(charNo);
+                vowels[charNo] = model.getLabels().get(charNo);
+            }
+        }
+        for(int charNo=0;model==null && charNo<5;charNo++){ //それぞれの母音について平均と分散を出す。
             int N = waveformList[charNo].length;
-            final Complex[][] cepstrum = new Complex[N-forFrameSize-1][fftSize4];
-            int count = 0;
+            // フレームごとのケプストラムは持たず，平均と分散を逐次求める
+            final RunningStats stats = new RunningStats(NumOfCepstrum);
             for(int k=0;k<N-forFrameSize-1;k+=hopsize){ //すべてのフレームについて
 
-                // そのフレームにおける配列,
-                final double[] frameArray = Arrays.copyOfRange(waveformList[charNo], k,k+forFrameSize);
-
-                /* 信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める．
+                /* そのフレームの信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める．
                 * 振幅を信号長で正規化する． */
-                final double[] src =
-                    Arrays.stream(Arrays.copyOf(frameArray, fftSize))
-                        .map(w -> w / forFrameSize)
-                        .toArray();
+                for(int j=0;j<fftSize;j++){
+                    src[j] = j < forFrameSize ? waveformList[charNo][k+j] / forFrameSize : 0.0;
+                }
                 /* 高速フーリエ変換を行う*/
-                final Complex[] spectrum = Le4MusicUtils.rfft(src); // 2^p -> 2^(p-1)+1
+                fft.rfft(src, re, im); // 2^p -> 2^(p-1)+1
 
 
                 // ケプストラム求める！
 
                 /* 1.対数振幅スペクトルを求める*/
-                final double[] specLog =
-                    Arrays.stream(spectrum)
-                        .mapToDouble(c -> 20*Math.log10(c.abs()))
-                        .toArray();
-
-                /* 1.5 スペクトルの配列の長さを2のn上にする*/
-                final double[] normalizeSpecLog = Arrays.copyOfRange(specLog, 0,fftSize3);
-
-                /* 2.対数振幅スペクトルをフーリエ変換する*/
-                cepstrum[k] = Le4MusicUtils.rfft(normalizeSpecLog);  //2^n -> 2^(n-1)+1
+                FFT.logAbs(re, im, frameSpecLog, fftSize2);
 
-                // 各フレームのケプストラム(1-13次)の値を足していく
-                for(int d=0;d<NumOfCepstrum;d++){ //0<d<14
-                    avgCepstrumArray[charNo][d] += cepstrum[k][d].getReal();
-                }
-
-                count++;
-            }
+                /* 2.対数振幅スペクトルの先頭 fftSize3(2のn乗)点をフーリエ変換する*/
+                cepstrumFFT.rfft(frameSpecLog, cepstrumRe, cepstrumIm);  //2^n -> 2^(n-1)+1
 
-            // ここで各フレームで足したものの平均を求める
-            for(int d=0;d<NumOfCepstrum;d++){
-                avgCepstrumArray[charNo][d] /= count;
+                // 各フレームのケプストラム(1-13次)を加える
+                stats.add(cepstrumRe);
             }
 
-            // 分散計算用のシグマのためのloop、各フレームの分散？をたしていく
-            for(int k=0;k<N-forFrameSize-1;k+=hopsize){ //すべてのフレームについて
-                for(int d=0;d<NumOfCepstrum;d++){
-                    varCepstrumArray[charNo][d] += Math.pow(cepstrum[k][d].getReal()-avgCepstrumArray[charNo][d],2);
-                }
-            }
-            // 分散てきなやつをたしていってたのの平均をとる。varCepstrumArrayは正確には標準偏差
-            for(int d=0;d<NumOfCepstrum;d++){
-                varCepstrumArray[charNo][d] = Math.sqrt(varCepstrumArray[charNo][d]/count);
-            }
+            // 平均と標準偏差(varCepstrumArrayは正確には標準偏差)
+            avgCepstrumArray[charNo] = stats.mean();
+            varCepstrumArray[charNo] = stats.std();
         }
         
 
@@ -237,50 +236,34 @@ public final class Ex1 extends Application {
         int N = waveformList[5].length;
         int res[] = new int[(N-forFrameSize-1)/hopsize+1];
         int count = 0;
+        // 各フレームのケプストラム(1-13次)を並べておき，最後にまとめて認識する
+        final double[] cepstrumBlock = new double[res.length*NumOfCepstrum];
         for(int k=0;k<N-forFrameSize-1;k+=hopsize){ //すべてのフレームについて
-            // 正規分布用の関数
-            final double[] normalDistribution = new double[5];
 
-            // そのフレームにおける配列,
-            final double[] frameArray = Arrays.copyOfRange(waveformList[5], k,k+forFrameSize);
-            
-            final int fftSizeRcg = 1 << Le4MusicUtils.nextPow2(frameArray.length);
-            final int fftSize2Rcg = (fftSizeRcg >> 1) + 1; //2^(p-1)+1 ??
-            final int fftSize3Rcg = fftSize2Rcg -1;
-            final double[] srcRcg =
-                Arrays.stream(Arrays.copyOf(frameArray, fftSizeRcg))
-                    .map(w -> w / frameArray.length)
-                    .toArray();
+            /* そのフレームの信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める．
+            * 振幅を信号長で正規化する． */
+            for(int j=0;j<fftSize;j++){
+                src[j] = j < forFrameSize ? waveformList[5][k+j] / forFrameSize : 0.0;
+            }
             /* 高速フーリエ変換を行う*/
-            final Complex[] spectrumRcg = Le4MusicUtils.rfft(srcRcg); // 2^p -> 2^(p-1)+1
+            fft.rfft(src, re, im); // 2^p -> 2^(p-1)+1
 
 
             // ケプストラム求める！
 
             /* 1.対数振幅スペクトルを求める*/
-            final double[] specLogRcg =
-                Arrays.stream(spectrumRcg)
-                    .mapToDouble(c -> 20*Math.log10(c.abs()))
-                    .toArray();
+            FFT.logAbs(re, im, frameSpecLog, fftSize2);
 
-            /* 1.5 スペクトルの配列の長さを2のn上にする*/
-            final double[] normalizeSpecLogRcg = Arrays.copyOfRange(specLogRcg, 0,fftSize3Rcg); // 2^(p-1)+1 -> 2^(p-1)
-            
-            
-            /* 2.対数振幅スペクトルをフーリエ変換する*/
-            final Complex[] cepstrumRcg = Le4MusicUtils.rfft(normalizeSpecLogRcg);  //2^n -> 2^(n-1)+1
-            
-            // ここで学習したmeanとvarianceを用いて正規分布に突っ込み各正規分布でのその値の確率を配列に格納し認識を行う
-            for(int charNo=0;charNo<5;charNo++){
-                for(int d=0;d<NumOfCepstrum;d++){
-                    normalDistribution[charNo] += Math.log(varCepstrumArray[charNo][d])+(Math.pow(cepstrumRcg[d].getReal()-avgCepstrumArray[charNo][d],2))/(2*Math.pow(varCepstrumArray[charNo][d],2));
-                }
-                normalDistribution[charNo] = -normalDistribution[charNo];
-            }
+            /* 2.対数振幅スペクトルの先頭 fftSize3(2のn乗)点をフーリエ変換する*/
+            cepstrumFFT.rfft(frameSpecLog, cepstrumRe, cepstrumIm);  //2^n -> 2^(n-1)+1
+            System.arraycopy(cepstrumRe, 0, cepstrumBlock, count*NumOfCepstrum, NumOfCepstrum);
 
             count++;
-            res[k/hopsize] = Le4MusicUtils.argmax(normalDistribution);
         }
+        // ここで学習したmeanとvarianceを用いて正規分布に突っ込み各正規分布でのその値を求めて認識を行う
+        // (対数や逆数は GaussianClassifier を作るときに1度だけ求める)
+        new GaussianClassifier(avgCepstrumArray, varCepstrumArray)
+            .classifyBlock(cepstrumBlock, count, new double[count*5], res);
 
 
 
@@ -292,39 +275,13 @@ public final class Ex1 extends Application {
         final int fftSizeFF2 = (fftSizeFF >> 1) + 1;
 
           
-        double autocorrelationList[] = new double[N];
-        double ansList[] = new double[N];
-        for(int k=0;k<N-forFrameSize-1;k+=hopsize){ //すべてのフレームについて
-            for(int tau=0;tau<forFrameSize;tau++){ //全てのタウについて
-                double autocorrelation = 0;
-                for(int j=k;j<k+forFrameSize-tau;j++){ //和を求める用のfor
-                    autocorrelation += waveformList[5][j]*waveformList[5][j+tau];
-                }
-                autocorrelationList[tau] = autocorrelation;
-
-            }
-            // あるフレームについてAC(自己相関関数)が存在する。各τについて
-            
-            // ピークピッキング
-            double peakList[] = new double[N];
-            int peakIndexList[] = new int[N];
-            for(int m=3;m<autocorrelationList.length;m++){
-                if((autocorrelationList[m-1]-autocorrelationList[m-2]>=0)&&(autocorrelationList[m]-autocorrelationList[m-1]<0)){
-                    peakList[m-3] = autocorrelationList[m-1];
-                    peakIndexList[m-3] = m-1;
-                }            
-            }
-            int peakIndex = Le4MusicUtils.argmax(peakList);
-            int maxIndex = peakIndexList[peakIndex];
-            double ans;
-            if(maxIndex==0 || sampleRate/maxIndex>Le4MusicUtils.f0UpperBound){ ans =  0;}
-            else{ ans = sampleRate/maxIndex;}
-            ansList[k] = ans;
-        }
+        final AutocorrelationPitchTracker tracker =
+            new AutocorrelationPitchTracker(sampleRate, forFrameSize, hopsize, Le4MusicUtils.f0UpperBound);
+        final double[] ansList = tracker.track(waveformList[5]);
          /* データ系列を作成*/
         final ObservableList<XYChart.Data<Number, Number>> data =
             IntStream.range(0, N/hopsize)
-                    .mapToObj(i -> new XYChart.Data<Number, Number>(i*hopsize / sampleRate, ansList[i*hopsize]))
+                    .mapToObj(i -> new XYChart.Data<Number, Number>(i*hopsize / sampleRate, i < ansList.length ? ansList[i] : 0.0))
                     .collect(Collectors.toCollection(FXCollections::observableArrayList));
 
         /* データ系列に名前をつける*/
@@ -355,17 +312,13 @@ public final class Ex1 extends Application {
         /* 窓関数を求め， それを正規化する */
         final double[] window = MathArrays.normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSizeFF), 1.0);
 
-        /* 短時間フーリエ変換本体 */
-        final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveformList[5], window, shiftSize)
-                .map(frame -> Le4MusicUtils.rfft(frame));
-
-        /* 複素スペクトログラムを対数振幅スペクトログラムに */
-        final double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> 20.0 * Math.log10(c.abs())).toArray())
-                .toArray(n -> new double[n][]);
+        /* 短時間フーリエ変換本体（フレームを区切って並列に計算し，対数振幅スペクトログラムにする） */
+        final Spectrogram specLog = new ParallelSTFT(window, shiftSize)
+                .spectrogram(waveformList[5], shiftDuration, Spectrogram.Storage.FLOAT);
 
 
         /* X 軸を作成 */
-        final double duration = (specLog.length - 1) * shiftDuration;
+        final double duration = specLog.getDuration();
 
         final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)", /* lowerBound = */ 0.0,
                 /* upperBound = */ duration, /* tickUnit = */ Le4MusicUtils.autoTickUnit(duration));
@@ -378,9 +331,9 @@ public final class Ex1 extends Application {
 
         /* チャートを作成 */
         final LineChartWithSpectrogram<Number, Number> chart = new LineChartWithSpectrogram<>(xAxis, yAxis);
-        chart.setParameters(specLog.length, fftSizeFF2, nyquist);
+        chart.setParameters(specLog.getFrames(), fftSizeFF2, nyquist);
         chart.setTitle("Spectrogram");
-        Arrays.stream(specLog).forEach(chart::addSpecLog);
+        specLog.addTo(chart);
         chart.setCreateSymbols(false);
         chart.setLegendVisible(false);
         chart.getData().add(series);
@@ -405,7 +358,7 @@ public final class Ex1 extends Application {
         /* データ系列を作成*/
         final ObservableList<XYChart.Data<Number, Number>> spectrumData =
             IntStream.range(0, fftSizeFF2)
-                     .mapToObj(i -> new XYChart.Data<Number, Number>(freqs[i], specLog[0][i]))
+                     .mapToObj(i -> new XYChart.Data<Number, Number>(freqs[i], specLog.get(0, i)))
                      .collect(Collectors.toCollection(FXCollections::observableArrayList));
 
         /* データ系列に名前をつける*/
@@ -596,19 +549,12 @@ public final class Ex1 extends Application {
             rmsValue.setText(String.valueOf(logRms));
             
             // 母音テキスト更新
-            String vowel = "";
-            if(position/hopsize<res.length){
-                if(res[position/hopsize]==0){ vowel = "a"; }
-                else if(res[position/hopsize]==1){ vowel = "i";}
-                else if(res[position/hopsize]==2){ vowel = "u";}
-                else if(res[position/hopsize]==3){ vowel = "e";}
-                else if(res[position/hopsize]==4){ vowel = "o";}
-            }
-            vowelValue.setText(vowel);
+            vowelValue.setText(position/hopsize<res.length ? vowels[res[position/hopsize]] : "");
 
 
             // 基本周波数テキスト更新
-            freaquencyValue.setText(String.valueOf(ansList[position/hopsize*hopsize]));
+            final double f0 = position/hopsize < ansList.length ? ansList[position/hopsize] : 0.0;
+            freaquencyValue.setText(String.valueOf(f0));
 
 
             // 再生位置のテキスト更新
@@ -619,14 +565,14 @@ public final class Ex1 extends Application {
 
             // スペクトラム更新
             spectrumData.clear();
-            if(position/shiftSize<specLog.length){
-                spectrumData.addAll(IntStream.range(0,specLog[position/shiftSize].length)
-                    .mapToObj(i -> new XYChart.Data<Number, Number>(freqs[i], specLog[position/shiftSize][i]))
+            if(position/shiftSize<specLog.getFrames()){
+                spectrumData.addAll(IntStream.range(0,specLog.getBins())
+                    .mapToObj(i -> new XYChart.Data<Number, Number>(freqs[i], specLog.get(position/shiftSize, i)))
                     .collect(Collectors.toList()));
             }
 
             // 音程テキスト更新
-            int noteNumber = 1 + ((int) Le4MusicUtils.hz2nn(ansList[position/hopsize*hopsize])) % 12;
+            int noteNumber = 1 + ((int) Le4MusicUtils.hz2nn(f0)) % 12;
             noteValue.setText(hmap.get(noteNumber));
 
         }));
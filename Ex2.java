@@ -1,12 +1,10 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
-import java.util.Arrays;
 import java.util.Optional;
 import java.util.HashMap;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 import java.util.stream.Collectors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import java.util.concurrent.ScheduledExecutorService;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Mixer;
@@ -19,11 +17,13 @@ import javafx.geometry.Insets;
 import javafx.geometry.Pos;
 import javafx.geometry.HPos;
 import javafx.stage.Stage;
+import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.chart.XYChart;
 import javafx.scene.chart.LineChart;
 import javafx.scene.layout.GridPane; 
+import javafx.scene.paint.Color;
 import javafx.scene.layout.ColumnConstraints;
 import javafx.scene.text.*;
 import javafx.scene.control.Label;
@@ -36,7 +36,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MathArrays;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
@@ -57,6 +56,46 @@ public final class Ex2 extends Application {
   private static final String helpMessage =
     MethodHandles.lookup().lookupClass().getName() + " [OPTIONS] <WAVFILE>";
 
+  // calculateFundamentalFreaquency で使い回す YIN（録音側の解析スレッドからのみ使う）
+  private YinPitchTracker yin;
+  // calculateSpectrum で使い回す FFT と作業領域（録音側の解析スレッドからのみ使う）
+  private FFT fft;
+  private double[] fftRe;
+  private double[] fftIm;
+
+  // 再生側の1フレームの解析結果
+  private static final class PlayerResult {
+    final double posInSec;
+    final double[] specLog;
+    // ガイドボーカルの基本周波数(曲の範囲外なら NaN)
+    final double karaokeF0;
+
+    PlayerResult(final double posInSec, final double[] specLog, final double karaokeF0) {
+      this.posInSec = posInSec;
+      this.specLog = specLog;
+      this.karaokeF0 = karaokeF0;
+    }
+  }
+
+  // 録音側の1フレームの解析結果
+  private static final class RecorderResult {
+    final double posInSec;
+    final double fundamentalFreaquency;
+    final int noteNumber;
+    // 曲が終わった後の採点結果(それまでは NaN)
+    final double score;
+    final double[] spectrum;
+
+    RecorderResult(final double posInSec, final double fundamentalFreaquency, final int noteNumber,
+                   final double score, final double[] spectrum) {
+      this.posInSec = posInSec;
+      this.fundamentalFreaquency = fundamentalFreaquency;
+      this.noteNumber = noteNumber;
+      this.score = score;
+      this.spectrum = spectrum;
+    }
+  }
+
   static {
     /* コマンドラインオプション定義 */
     options.addOption("h", "help", false, "display this help and exit");
@@ -85,6 +124,10 @@ public final class Ex2 extends Application {
                       "Lower bound of frequency [Hz] (Default: 0.0)");
     options.addOption(null, "freq-up", true,
                       "Upper bound of frequency [Hz] (Default: Nyquist)");
+    options.addOption(null, "canvas", false,
+                      "Draw the spectrum on a Canvas instead of chart nodes");
+    options.addOption(null, "cqt", false,
+                      "Pick the displayed note from the constant-Q spectrum instead of the fundamental frequency");
   }
 
     @Override /* Application */
@@ -183,9 +226,6 @@ public final class Ex2 extends Application {
         builder.daemon();
         final Player player = builder.build();
 
-        /* データ処理スレッド */
-        final ExecutorService executor = Executors.newSingleThreadExecutor();
-
 
         // chrat1に表示する録音している音声の基本周波数用のobervablelist
         final ObservableList<XYChart.Data<Number, Number>> data =
@@ -269,12 +309,13 @@ public final class Ex2 extends Application {
                 .orElse(Le4MusicUtils.frameDuration / 8);
         final int shiftSize = (int) Math.round(shiftDuration * player.getSampleRate());
 
-        /* 基本周波数出す処理 */
-        final double[] arrayOfFundamentalFreaquency = Le4MusicUtils.sliding(waveform, window, shiftSize)
-            .mapToDouble(frame -> {
-                double fundamentalFreaquency = calculateFundamentalFreaquency(frame,player.getSampleRate());
-                return fundamentalFreaquency/4;
-            }).toArray();
+        /* 基本周波数出す処理（YIN は窓を掛けない波形から求める）．
+           曲の終わりの判定に使うので，フレーム数は Le4MusicUtils.sliding と同じ (N-1)/shift+1 にする（末尾のフレームは 0 で埋めて求める） */
+        final YinPitchTracker guideTracker =
+            new YinPitchTracker(player.getSampleRate(), player.getFrameSize(), shiftSize, Le4MusicUtils.f0UpperBound);
+        final double[] arrayOfFundamentalFreaquency = new double[(songLength - 1) / shiftSize + 1];
+        for (int i = 0; i < arrayOfFundamentalFreaquency.length; i++)
+            arrayOfFundamentalFreaquency[i] = guideTracker.estimate(waveform, i * shiftSize);
         
 
 
@@ -380,16 +421,36 @@ public final class Ex2 extends Application {
         );
         yAxis3.setAnimated(false);
 
-        /* チャートを作成*/
-        final LineChart<Number, Number> chart3 =
-            new LineChart<>(xAxis3, yAxis3);
-        chart3.setTitle("Spectrum");
-        chart3.setCreateSymbols(false);
-        chart3.setLegendVisible(false);
-        chart3.getData().add(spectrumSeries);
-        chart3.setAnimated(false);
-        spectrumSeries.nodeProperty().get().setStyle("-fx-stroke:red;");
-        spectrumSeries.nodeProperty().get().setStyle("-fx-stroke-width:1px;");
+        /* チャートを作成(--canvas なら毎フレームの点を作らずに Canvas に直接描く)*/
+        final Parent chart3;
+        final Consumer<double[]> updateSpectrum;
+        if (cmd.hasOption("canvas")) {
+            final LineCanvas canvas3 = new LineCanvas(xAxis3, yAxis3);
+            canvas3.setTitle("Spectrum");
+            canvas3.setStroke(Color.RED);
+            chart3 = canvas3;
+            updateSpectrum = spectrum -> {
+                final int n = Math.min(freqs.length, spectrum.length);
+                canvas3.setData(spectrum, n, freqs[0], freqs[n - 1]);
+            };
+        } else {
+            final LineChart<Number, Number> lineChart3 =
+                new LineChart<>(xAxis3, yAxis3);
+            lineChart3.setTitle("Spectrum");
+            lineChart3.setCreateSymbols(false);
+            lineChart3.setLegendVisible(false);
+            lineChart3.getData().add(spectrumSeries);
+            lineChart3.setAnimated(false);
+            spectrumSeries.nodeProperty().get().setStyle("-fx-stroke:red;");
+            spectrumSeries.nodeProperty().get().setStyle("-fx-stroke-width:1px;");
+            chart3 = lineChart3;
+            updateSpectrum = spectrum -> {
+                spectrumData.clear();
+                spectrumData.addAll(IntStream.range(0,Math.min(freqs.length,spectrum.length))
+                    .mapToObj(i -> new XYChart.Data<Number, Number>(freqs[i], spectrum[i]))
+                    .collect(Collectors.toList()));
+            };
+        }
 
 
 
@@ -465,8 +526,6 @@ public final class Ex2 extends Application {
         scene.getStylesheets().add("src/le4music.css");
         primaryStage.setScene(scene);
         primaryStage.setTitle(getClass().getName());
-        /* ウインドウを閉じたときに他スレッドも停止させる */
-        primaryStage.setOnCloseRequest(req -> executor.shutdown());
         primaryStage.show();
         Platform.setImplicitExit(true);
 
@@ -474,33 +533,45 @@ public final class Ex2 extends Application {
         
 
         // カラオケ流す用のプレイヤー
-        player.addAudioFrameListener((frame, position) -> Platform.runLater(() -> {
-            final double rms = Arrays.stream(frame).map(x -> x * x).average().orElse(0.0);
-            final double logRms = 20.0 * Math.log10(rms);
-            final double[] wframe = MathArrays.ebeMultiply(frame, window);
-            final Complex[] spectrum = Le4MusicUtils.rfft(Arrays.copyOf(wframe, fftSize));
-            final double posInSec = position / player.getSampleRate();
-
-            /* スペクトログラム描画 */
-            chart.addSpectrum(spectrum);
-
-            // 配列外参照を起こさない範囲で上で導出したガイドボーカルの基本周波数を描画する。
-            // recorderの方の描画と少しずれるのでそこは時間を0.8秒プラスすることでうたったものの基本周波数のタイミングと合わせる。
-            if(position/shiftSize<arrayOfFundamentalFreaquency.length){ karaokeNoteData.add( new XYChart.Data<Number, Number>(posInSec+0.8, arrayOfFundamentalFreaquency[position/shiftSize])); }
-            
-
-            
-
-            /* 軸を更新 */
-            xAxis.setUpperBound(posInSec);
-            xAxis.setLowerBound(posInSec - duration);
-        }));
+        // プレイヤー側のスペクトログラム用の FFT と作業領域(解析スレッドだけで使う)
+        final FFT playerFFT = new FFT(fftSize);
+        final double[] playerRe = new double[fftSize2];
+        final double[] playerIm = new double[fftSize2];
+        final double[] playerFrame = new double[player.getFrameSize()];
+        // FFT・対数振幅スペクトルは解析スレッドで求め，画面には結果だけを渡す
+        final AnalysisWorker<PlayerResult> playerWorker = new AnalysisWorker<>("player-analysis", player.getFrameSize(), 64, FrameRingBuffer.Overflow.DROP_OLDEST,
+            (frame, position) -> {
+                for (int i = 0; i < playerFrame.length; i++)
+                    playerFrame[i] = frame[i] * window[i];
+                playerFFT.rfft(playerFrame, playerRe, playerIm);
+                final double[] specLog = new double[fftSize2];
+                FFT.logAbs(playerRe, playerIm, specLog, fftSize2);
+                // 配列外参照を起こさない範囲で上で導出したガイドボーカルの基本周波数を描画する。
+                final double karaokeF0 = position/shiftSize<arrayOfFundamentalFreaquency.length
+                    ? arrayOfFundamentalFreaquency[(int) (position/shiftSize)] : Double.NaN;
+                return new PlayerResult(position / player.getSampleRate(), specLog, karaokeF0);
+            },
+            results -> {
+                for (final PlayerResult r : results) {
+                    /* スペクトログラム描画 */
+                    chart.addSpecLog(r.specLog);
+
+                    // recorderの方の描画と少しずれるのでそこは時間を0.8秒プラスすることでうたったものの基本周波数のタイミングと合わせる。
+                    if (!Double.isNaN(r.karaokeF0)) { karaokeNoteData.add( new XYChart.Data<Number, Number>(r.posInSec+0.8, r.karaokeF0)); }
+                }
+
+                /* 軸を更新 */
+                final double posInSec = results.get(results.size() - 1).posInSec;
+                xAxis.setUpperBound(posInSec);
+                xAxis.setLowerBound(posInSec - duration);
+            });
+        player.addAudioFrameListener(playerWorker::submit);
 
         /* 録音開始 */
         Platform.runLater(player::start);
 
 
-        // 採点用の配列
+        // 採点用の配列(解析スレッドだけで使う)
         final int[] allFrameNumber = new int[]{0};
         final int[] correctAnsNumber = new int[]{0};
 
@@ -509,114 +580,112 @@ public final class Ex2 extends Application {
                              .mixer(AudioSystem.getMixerInfo()[4])
                              .daemon()
                              .build();
-        recorder.addAudioFrameListener((frame, position) -> Platform.runLater(()->{
-            final double rms = Arrays.stream(frame).map(x -> x * x).average().orElse(0.0);
-            final double logRms = 20.0 * Math.log10(rms);
-            final double posInSec = position / recorder.getSampleRate();
-            
-            /* 軸を更新 */
-            xAxis.setUpperBound(posInSec);
-            xAxis.setLowerBound(posInSec - duration);
-            xAxis2.setUpperBound(posInSec);
-            xAxis2.setLowerBound(posInSec - duration);
-
-            int frameSize = recorder.getFrameSize();
-            double fundamentalFreaquency = 0;
-            int noteNumber = 0;
-
-            // 歌っていない時を下のifで判断している。歌っていないときは歌ったものの基本周波数も0にし、採点の判断にも入れない。
-            if(logRms>-100){ 
-                fundamentalFreaquency = calculateFundamentalFreaquency(MathArrays.ebeMultiply(frame, window),recorder.getSampleRate());
-                noteNumber =  1+( (int)Le4MusicUtils.hz2nn(fundamentalFreaquency)) % 12;
-
-                // 採点用の処理、ここで全フレームをカウントするallFrameNumberを毎回インクリメントし、歌ったものがガイドボーカルの基本周波数に近いときはcorrectAnsNumberもインクリメントする。
-                if(arrayOfFundamentalFreaquency.length>position/shiftSize){ 
-                    allFrameNumber[0]++;
-                    if(fundamentalFreaquency<arrayOfFundamentalFreaquency[position/shiftSize]+50 && fundamentalFreaquency>arrayOfFundamentalFreaquency[position/shiftSize]-50){ correctAnsNumber[0]++;} 
-                }   
+        final double[] recorderFrame = new double[recorder.getFrameSize()];
+        // --cqt のときは音名を定Q変換の最も大きいノートから決める(スペクトラムの FFT の結果を使い回す)
+        final ConstantQ constantQ = cmd.hasOption("cqt")
+            ? ConstantQ.of(recorder.getFrameSize(), 1 << Le4MusicUtils.nextPow2(recorder.getFrameSize()), recorder.getSampleRate())
+            : null;
+        final double[] cq = constantQ != null ? new double[constantQ.getNotes()] : null;
+        // 基本周波数・採点・スペクトラムは解析スレッドで求め，画面には結果だけを渡す
+        final AnalysisWorker<RecorderResult> recorderWorker = new AnalysisWorker<>("recorder-analysis", recorder.getFrameSize(), 64, FrameRingBuffer.Overflow.DROP_OLDEST,
+            (frame, position) -> {
+                final int frameIndex = (int) (position/shiftSize);
+                for (int i = 0; i < recorderFrame.length; i++)
+                    recorderFrame[i] = frame[i] * window[i];
+
+                int noteNumber = 0;
+
+                // スペクトラム（直後の fftRe, fftIm はこのフレームの FFT の結果）
+                final double[] spectrum = calculateSpectrum(recorderFrame,recorder.getSampleRate());
+
+                // 歌っていない時を下のifで判断している（YIN が無声と判定したら 0）。歌っていないときは歌ったものの基本周波数も0にし、採点の判断にも入れない。
+                final double fundamentalFreaquency = calculateFundamentalFreaquency(frame,recorder.getSampleRate());
+                if(fundamentalFreaquency>0){ 
+                    if(constantQ != null){
+                        constantQ.transform(fftRe, fftIm, cq);
+                        noteNumber = 1 + constantQ.dominantNote(cq) % 12;
+                    }
+                    else
+                        noteNumber =  1+( (int)Le4MusicUtils.hz2nn(fundamentalFreaquency)) % 12;
+
+                    // 採点用の処理、ここで全フレームをカウントするallFrameNumberを毎回インクリメントし、歌ったものがガイドボーカルの基本周波数に近いときはcorrectAnsNumberもインクリメントする。
+                    if(arrayOfFundamentalFreaquency.length>frameIndex){ 
+                        allFrameNumber[0]++;
+                        if(fundamentalFreaquency<arrayOfFundamentalFreaquency[frameIndex]+50 && fundamentalFreaquency>arrayOfFundamentalFreaquency[frameIndex]-50){ correctAnsNumber[0]++;} 
+                    }   
+                }
+
+                // 最終的に採点結果は(歌っていたときの)全フレーム数に対するガイドボーカルの基本周波数との誤差が50Hz未満だったフレーム数の割合で定義した。
+                double score = Double.NaN;
+                if(arrayOfFundamentalFreaquency.length<frameIndex){ 
+                    double frnum = (double) allFrameNumber[0];
+                    double crnum = (double) correctAnsNumber[0];
+
+                    score =  100.*crnum/frnum*1.5;
+                }
+
+                return new RecorderResult(position / recorder.getSampleRate(), fundamentalFreaquency, noteNumber, score, spectrum);
+            },
+            results -> {
+                for (final RecorderResult r : results) {
+                    if(r.posInSec - duration>0){
+                        data.remove(0,1);
+                        vocalNoteData.remove(0,1);
+                    }
+                    // chart1のスペクトログラム上の基本周波数描画
+                    data.add( new XYChart.Data<Number, Number>(r.posInSec, r.fundamentalFreaquency));
+                    // chart2の音程のデータ追加
+                    vocalNoteData.add( new XYChart.Data<Number, Number>(r.posInSec, r.fundamentalFreaquency));
+                    if (!Double.isNaN(r.score))
+                        scoreValue.setText(String.valueOf(r.score));
+                }
+
+                // 表示は最新の結果だけでよい
+                final RecorderResult last = results.get(results.size() - 1);
+
+                /* 軸を更新 */
+                xAxis.setUpperBound(last.posInSec);
+                xAxis.setLowerBound(last.posInSec - duration);
+                xAxis2.setUpperBound(last.posInSec);
+                xAxis2.setLowerBound(last.posInSec - duration);
+
+                // 周波数/音程名の値表示 
+                freaquencyValue.setText(String.valueOf(last.fundamentalFreaquency));
+                noteValue.setText(hmap.get(last.noteNumber));
+
+                // 再生位置表示
+                BigDecimal bd = new BigDecimal(last.posInSec);
+                BigDecimal bd2 = bd.setScale(1, BigDecimal.ROUND_DOWN);
+                positionValue.setText(bd2.toString());
+
+                lyricsText.setText(setLyrics(last.posInSec,lyrics));
+
+                // スペクトラム更新
+                updateSpectrum.accept(last.spectrum);
+            });
+        recorder.addAudioFrameListener(recorderWorker::submit);
+
+        /* ウインドウを閉じたときに解析スレッドも停止させる */
+        primaryStage.setOnCloseRequest(req -> {
+            playerWorker.close();
+            recorderWorker.close();
+            if (verbose) {
+                System.out.println(playerWorker);
+                System.out.println(recorderWorker);
             }
+        });
 
-            // 最終的に採点結果は(歌っていたときの)全フレーム数に対するガイドボーカルの基本周波数との誤差が50Hz未満だったフレーム数の割合で定義した。
-            if(arrayOfFundamentalFreaquency.length<position/shiftSize){ 
-                double frnum = (double) allFrameNumber[0];
-                double crnum = (double) correctAnsNumber[0];
-
-                double score =  100.*crnum/frnum;
-                scoreValue.setText(String.valueOf(score*1.5));
-            }
-            
-            
-            
-            if(posInSec - duration>0){
-                data.remove(0,1);
-                vocalNoteData.remove(0,1);
-            }
-            // chart1のスペクトログラム上の基本周波数描画
-            data.add( new XYChart.Data<Number, Number>(posInSec, fundamentalFreaquency));
-            // chart2の音程のデータ追加
-            vocalNoteData.add( new XYChart.Data<Number, Number>(posInSec, fundamentalFreaquency));
-           
-            // 周波数/音程名の値表示 
-            freaquencyValue.setText(String.valueOf(fundamentalFreaquency));
-            noteValue.setText(hmap.get(noteNumber));
-            
-
-
-            // 再生位置表示
-            BigDecimal bd = new BigDecimal(position/ recorder.getSampleRate() );
-            BigDecimal bd2 = bd.setScale(1, BigDecimal.ROUND_DOWN);
-            positionValue.setText(bd2.toString());
-
-            lyricsText.setText(setLyrics(position/ recorder.getSampleRate(),lyrics));
-
-
-            // スペクトラム更新
-            double[] spectrum = calculateSpectrum(MathArrays.ebeMultiply(frame, window),recorder.getSampleRate());
-            spectrumData.clear();
-            spectrumData.addAll(IntStream.range(0,freqs.length)
-                .mapToObj(i -> new XYChart.Data<Number, Number>(freqs[i], spectrum[i]))
-                .collect(Collectors.toList()));
-            
-            
-        }));
-        
         recorder.start();
 
     }
 
 
-    // calculate fundamental freaquency 
+    // calculate fundamental freaquency (YIN．無声・無音なら 0 で，確からしさは yin.getConfidence())
     public double calculateFundamentalFreaquency(double[] frame,double sampleRate){  
-        double ans = 0;
-        final double logRms = 20.0 * Math.log10(Arrays.stream(frame).map(x -> x * x).average().orElse(0.0));    
-        int zerocrossing = calNumberOfZeroCrossing(Arrays.copyOfRange(frame,0,frame.length));
-        // System.out.println(logRms);
-        if( zerocrossing<1000 || logRms>-100){ 
-            
-            final int fftSize = 1 << Le4MusicUtils.nextPow2(frame.length);
-            final int fftSize2 = (fftSize >> 1) + 1;
-            final double[] src = Arrays.stream(Arrays.copyOf(frame, fftSize)).toArray();
-            final Complex[] spectrum = Le4MusicUtils.fft(src);
-            final double[] power = Arrays.stream(spectrum).mapToDouble(c -> c.abs()*c.abs()).toArray();
-            final Complex[] tmp  = Le4MusicUtils.ifft(power);
-            final double[] autocorrelationList = Arrays.stream(tmp).mapToDouble(w -> w.getReal()).toArray();
-
-
-            // ピークピッキング
-            double peakList[] = new double[fftSize];
-            int peakIndexList[] = new int[fftSize];
-            for(int m=3;m<autocorrelationList.length;m++){
-                if((autocorrelationList[m-1]-autocorrelationList[m-2]>=0)&&(autocorrelationList[m]-autocorrelationList[m-1]<0)){
-                    peakList[m-3] = autocorrelationList[m-1];
-                    peakIndexList[m-3] = m-1;
-                }            
-            }
-            int peakIndex = Le4MusicUtils.argmax(peakList);
-            int maxIndex = peakIndexList[peakIndex];
-            if(maxIndex==0 || sampleRate/maxIndex>Le4MusicUtils.f0UpperBound+400){ ans =  0;}
-            else{ ans = sampleRate/maxIndex;}
+        if(yin == null || yin.getFrameSize() != frame.length){
+            yin = new YinPitchTracker(sampleRate, frame.length, frame.length, Le4MusicUtils.f0UpperBound);
         }
-        return ans; 
+        return yin.estimate(frame); 
     }
 
 
@@ -624,16 +693,25 @@ public final class Ex2 extends Application {
     public double[] calculateSpectrum(double[] frame,double sampleRate){  
         final int fftSize = 1 << Le4MusicUtils.nextPow2(frame.length);
         final int fftSize2 = (fftSize >> 1) + 1;
-        final double[] src = Arrays.stream(Arrays.copyOf(frame, fftSize)).toArray();
-        final Complex[] spectrum = Le4MusicUtils.fft(src);
-        final double[] power = Arrays.stream(spectrum).mapToDouble(c -> c.abs()).toArray();
-        final double[] a =  Arrays.stream(power).map(i->{
-            // System.out.println(i);
-            return Math.log10(i);
-            }).toArray();
+        fftFor(fftSize).rfft(frame, fftRe, fftIm);
+        final double[] a = new double[fftSize2];
+        FFT.abs(fftRe, fftIm, a, fftSize2);
+        for(int i=0;i<fftSize2;i++){
+            a[i] = Math.log10(a[i]);
+        }
         return a; 
     }
 
+    // fftSize 点の FFT と作業領域．点数が変わったときだけ作り直す
+    private FFT fftFor(int fftSize){
+        if(fft == null || fft.getSize() != fftSize){
+            fft = new FFT(fftSize);
+            fftRe = new double[fft.getBins()];
+            fftIm = new double[fft.getBins()];
+        }
+        return fft;
+    }
+
     public int calNumberOfZeroCrossing(double[] waveform){
         int count = 0;
         for(int i=0;i<waveform.length-1;i++){
@@ -0,0 +1,124 @@
+/* 実部・虚部を別々の double[] で持つ高速フーリエ変換
+ * Le4MusicUtils.fft/rfft/irfft と同じ規約(順変換は正規化なし，逆変換で 1/N)で，
+ * 結果は呼び出し側が用意した配列に書き込むので Complex[] を確保しない．
+ * 回転因子などの表は FFTPlan から取得して同じ点数のインスタンス間で共有する．
+ * 作業領域を持つのでインスタンスはスレッドごとに用意すること */
+public final class FFT {
+
+    private final int size;
+    private final int half;
+    private final FFTPlan forward;
+    private final FFTPlan inverse;
+
+    // 実数 FFT で使う size/2 点の複素数列
+    private final double[] zr;
+    private final double[] zi;
+
+    public FFT(final int size) {
+        if (size < 2 || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("size must be a power of 2 (>= 2): " + size);
+        this.size = size;
+        this.half = size >> 1;
+        this.forward = FFTPlan.forward(size);
+        this.inverse = FFTPlan.inverse(size);
+        this.zr = new double[half];
+        this.zi = new double[half];
+    }
+
+    public final int getSize() {
+        return size;
+    }
+
+    /* 実数 FFT の出力点数 size/2+1 */
+    public final int getBins() {
+        return half + 1;
+    }
+
+    /* 複素 FFT (in-place)．re, im の先頭 size 点を変換する */
+    public final void fft(final double[] re, final double[] im) {
+        forward.transform(re, im, false);
+    }
+
+    /* 複素逆 FFT (in-place, 1/size で正規化) */
+    public final void ifft(final double[] re, final double[] im) {
+        inverse.transform(re, im, false);
+        final double scale = 1.0 / size;
+        for (int i = 0; i < size; i++) {
+            re[i] *= scale;
+            im[i] *= scale;
+        }
+    }
+
+    /* 実数 FFT．src の先頭 size 点(足りない分は 0)を変換し，0 ... size/2 番目の係数を re, im に書き込む */
+    public final void rfft(final double[] src, final double[] re, final double[] im) {
+        /* 偶数番目を実部，奇数番目を虚部とした size/2 点の複素 FFT から組み立てる */
+        final int n = Math.min(src.length, size);
+        for (int k = 0; k < half; k++) {
+            zr[k] = 2 * k < n ? src[2 * k] : 0.0;
+            zi[k] = 2 * k + 1 < n ? src[2 * k + 1] : 0.0;
+        }
+        forward.transform(zr, zi, true);
+
+        re[0] = zr[0] + zi[0];
+        im[0] = 0.0;
+        re[half] = zr[0] - zi[0];
+        im[half] = 0.0;
+        for (int k = 1; k < half; k++) {
+            final double a = zr[k];
+            final double b = zi[k];
+            final double c = zr[half - k];
+            final double d = zi[half - k];
+            /* 偶数列・奇数列それぞれのスペクトル */
+            final double er = 0.5 * (a + c);
+            final double ei = 0.5 * (b - d);
+            final double or = 0.5 * (b + d);
+            final double oi = -0.5 * (a - c);
+            /* X[k] = E[k] + W^k O[k] */
+            final double wr = forward.wr[k];
+            final double wi = forward.wi[k];
+            re[k] = er + wr * or - wi * oi;
+            im[k] = ei + wr * oi + wi * or;
+        }
+    }
+
+    /* 実数逆 FFT．0 ... size/2 番目の係数 re, im から長さ size の実信号を dst に書き込む */
+    public final void irfft(final double[] re, final double[] im, final double[] dst) {
+        for (int k = 0; k < half; k++) {
+            final double a = re[k];
+            final double b = im[k];
+            final double c = re[half - k];
+            final double d = -im[half - k];
+            /* 偶数列・奇数列それぞれのスペクトル */
+            final double er = 0.5 * (a + c);
+            final double ei = 0.5 * (b + d);
+            final double xr = 0.5 * (a - c);
+            final double xi = 0.5 * (b - d);
+            /* O[k] = (X[k] - conj(X[size/2-k])) W^(-k) / 2 */
+            final double wr = inverse.wr[k];
+            final double wi = inverse.wi[k];
+            final double or = xr * wr - xi * wi;
+            final double oi = xr * wi + xi * wr;
+            zr[k] = er - oi;
+            zi[k] = ei + or;
+        }
+        inverse.transform(zr, zi, true);
+        final double scale = 1.0 / half;
+        for (int k = 0; k < half; k++) {
+            dst[2 * k] = zr[k] * scale;
+            dst[2 * k + 1] = zi[k] * scale;
+        }
+    }
+
+    /* 振幅 |X[k]| を dst[0] ... dst[n-1] に書き込む */
+    public static void abs(final double[] re, final double[] im, final double[] dst, final int n) {
+        for (int k = 0; k < n; k++)
+            dst[k] = Math.sqrt(re[k] * re[k] + im[k] * im[k]);
+    }
+
+    /* 対数振幅 20 log10 |X[k]| を dst[0] ... dst[n-1] に書き込む */
+    public static void logAbs(final double[] re, final double[] im, final double[] dst, final int n) {
+        for (int k = 0; k < n; k++)
+            dst[k] = 10.0 * Math.log10(re[k] * re[k] + im[k] * im[k]);
+    }
+
+}
@@ -0,0 +1,119 @@
+import java.util.concurrent.ConcurrentHashMap;
+
+/* FFT の点数と向きごとに事前計算した表
+ * 回転因子 W^k = exp(∓2πik/size) (0 <= k < size/2) と，size 点・size/2 点それぞれのビット反転の入れ替え表を持つ．
+ * 実数 FFT の組み立て(FFT.rfft/irfft)で掛ける係数も同じ W^k なので同じ表を使う．
+ * 生成後は変更しないので複数スレッドで共有してよい */
+public final class FFTPlan {
+
+    private static final ConcurrentHashMap<Long, FFTPlan> cache = new ConcurrentHashMap<>();
+
+    private final int size;
+    private final boolean inverse;
+
+    // 回転因子の実部・虚部
+    final double[] wr;
+    final double[] wi;
+
+    // ビット反転で入れ替える添字の組 (swap[2m], swap[2m+1])
+    private final int[] swap;
+    private final int[] halfSwap;
+
+    private FFTPlan(final int size, final boolean inverse) {
+        this.size = size;
+        this.inverse = inverse;
+        final double sign = inverse ? +1.0 : -1.0;
+        final int half = size >> 1;
+        this.wr = new double[half];
+        this.wi = new double[half];
+        for (int k = 0; k < half; k++) {
+            final double theta = 2.0 * Math.PI * k / size;
+            wr[k] = Math.cos(theta);
+            wi[k] = sign * Math.sin(theta);
+        }
+        this.swap = bitReversal(size);
+        this.halfSwap = bitReversal(half);
+    }
+
+    /* 順変換の表 */
+    public static FFTPlan forward(final int size) {
+        return of(size, false);
+    }
+
+    /* 逆変換の表 */
+    public static FFTPlan inverse(final int size) {
+        return of(size, true);
+    }
+
+    /* 点数 size，向き inverse の表．同じ組み合わせなら同じインスタンスを返す */
+    public static FFTPlan of(final int size, final boolean inverse) {
+        if (size < 2 || Integer.bitCount(size) != 1)
+            throw new IllegalArgumentException("size must be a power of 2 (>= 2): " + size);
+        return cache.computeIfAbsent(((long) size << 1) | (inverse ? 1L : 0L),
+                                     key -> new FFTPlan(size, inverse));
+    }
+
+    public final int getSize() {
+        return size;
+    }
+
+    public final boolean isInverse() {
+        return inverse;
+    }
+
+    /* 基数2の Cooley-Tukey (in-place，正規化なし)．
+     * half が false なら size 点，true なら size/2 点の複素 FFT を re, im の先頭に対して行う */
+    public final void transform(final double[] re, final double[] im, final boolean half) {
+        final int n = half ? size >> 1 : size;
+        final int[] table = half ? halfSwap : swap;
+
+        /* ビット反転順に並べ替える */
+        for (int m = 0; m < table.length; m += 2) {
+            final int i = table[m];
+            final int j = table[m + 1];
+            double t = re[i]; re[i] = re[j]; re[j] = t;
+            t = im[i]; im[i] = im[j]; im[j] = t;
+        }
+
+        /* バタフライ演算．長さ len の段の j 番目の回転因子は W^(j*size/len) */
+        for (int len = 2; len <= n; len <<= 1) {
+            final int h = len >> 1;
+            final int stride = size / len;
+            for (int j = 0; j < h; j++) {
+                final double cr = wr[j * stride];
+                final double ci = wi[j * stride];
+                for (int i = j; i < n; i += len) {
+                    final int l = i + h;
+                    final double tr = cr * re[l] - ci * im[l];
+                    final double ti = cr * im[l] + ci * re[l];
+                    re[l] = re[i] - tr;
+                    im[l] = im[i] - ti;
+                    re[i] += tr;
+                    im[i] += ti;
+                }
+            }
+        }
+    }
+
+    private static int[] bitReversal(final int n) {
+        final int bits = Integer.numberOfTrailingZeros(n);
+        int pairs = 0;
+        for (int i = 0; i < n; i++)
+            if (i < reverse(i, bits))
+                pairs++;
+        final int[] table = new int[2 * pairs];
+        for (int i = 0, m = 0; i < n; i++) {
+            final int j = reverse(i, bits);
+            if (i < j) {
+                table[m++] = i;
+                table[m++] = j;
+            }
+        }
+        return table;
+    }
+
+    private static int reverse(final int i, final int bits) {
+        return bits == 0 ? 0 : Integer.reverse(i) >>> (32 - bits);
+    }
+
+}
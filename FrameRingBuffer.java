@@ -0,0 +1,164 @@
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/* Player/Recorder のリスナー(書き手1つ)から解析スレッド(読み手1つ)へフレームを渡すリングバッファ
+ * capacity 個のフレームの領域を最初に確保し，offer ではそこへコピーするだけでロックもメモリ確保もしない．
+ * 満杯のときの扱いは Overflow で選ぶ．
+ * 読み手はスロットを読んでから head を CAS で進める．DROP_OLDEST で書き手が同じスロットを先に捨てて
+ * 上書きしていれば CAS が失敗するので，読んだ内容を捨てて次のスロットを読み直す */
+public final class FrameRingBuffer {
+
+    /* 満杯のときの扱い */
+    public enum Overflow {
+        // 最も古いフレームを捨てて書く(常に最新のフレームが残る)
+        DROP_OLDEST,
+        // 書こうとしたフレームを捨てる
+        DROP_NEWEST,
+        // 空きができるまで書き手を待たせる
+        BLOCK
+    }
+
+    // 待つときに1回に眠る時間 [ns]．相手が unpark すればすぐ起きる
+    private static final long parkNanos = TimeUnit.MICROSECONDS.toNanos(200);
+
+    private final int capacity;
+    private final int frameSize;
+    private final Overflow overflow;
+    private final double[][] frames;
+    private final long[] positions;
+
+    // 次に読むフレームの通し番号(読み手と DROP_OLDEST の書き手が進める)
+    private final AtomicLong head = new AtomicLong();
+    // 次に書くフレームの通し番号(書き手だけが進める)
+    private final AtomicLong tail = new AtomicLong();
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong dropped = new AtomicLong();
+    private final AtomicLong highWater = new AtomicLong();
+
+    private volatile Thread producer = null;
+    private volatile Thread consumer = null;
+
+    public FrameRingBuffer(final int capacity, final int frameSize, final Overflow overflow) {
+        if (capacity < 1)
+            throw new IllegalArgumentException("capacity must be positive: " + capacity);
+        if (frameSize < 1)
+            throw new IllegalArgumentException("frameSize must be positive: " + frameSize);
+        this.capacity = capacity;
+        this.frameSize = frameSize;
+        this.overflow = overflow;
+        this.frames = new double[capacity][frameSize];
+        this.positions = new long[capacity];
+    }
+
+    public final int getCapacity() {
+        return capacity;
+    }
+
+    public final int getFrameSize() {
+        return frameSize;
+    }
+
+    public final Overflow getOverflow() {
+        return overflow;
+    }
+
+    /* 書き手の側: frame の先頭 frameSize 個を書く．書いたら true，捨てたら false
+     * (DROP_OLDEST では代わりに古いフレームを捨てるので常に true) */
+    public final boolean offer(final double[] frame, final long position) {
+        if (frame.length < frameSize)
+            throw new IllegalArgumentException("frame is shorter than frameSize: " + frame.length);
+        offered.incrementAndGet();
+        final long t = tail.get();
+        while (t - head.get() >= capacity) {
+            switch (overflow) {
+            case DROP_NEWEST:
+                dropped.incrementAndGet();
+                return false;
+            case DROP_OLDEST: {
+                final long h = head.get();
+                // 失敗したのは読み手が先に読み進めたときなので，もう一度確かめる
+                if (t - h >= capacity && head.compareAndSet(h, h + 1))
+                    dropped.incrementAndGet();
+                break;
+            }
+            default:
+                producer = Thread.currentThread();
+                if (t - head.get() >= capacity)
+                    LockSupport.parkNanos(this, parkNanos);
+                producer = null;
+                break;
+            }
+        }
+        final int slot = (int) (t % capacity);
+        System.arraycopy(frame, 0, frames[slot], 0, frameSize);
+        positions[slot] = position;
+        tail.set(t + 1);
+        highWater.accumulateAndGet(t + 1 - head.get(), Math::max);
+        final Thread c = consumer;
+        if (c != null)
+            LockSupport.unpark(c);
+        return true;
+    }
+
+    /* 読み手の側: 最も古いフレームを dst にコピーし，その位置を返す．空なら -1 */
+    public final long poll(final double[] dst) {
+        while (true) {
+            final long h = head.get();
+            if (h >= tail.get())
+                return -1;
+            final int slot = (int) (h % capacity);
+            System.arraycopy(frames[slot], 0, dst, 0, frameSize);
+            final long position = positions[slot];
+            if (head.compareAndSet(h, h + 1)) {
+                final Thread p = producer;
+                if (p != null)
+                    LockSupport.unpark(p);
+                return position;
+            }
+            // 読んでいる間に書き手がこのフレームを捨てた(上書きされたかもしれない)
+        }
+    }
+
+    /* 読み手の側: フレームが来るまで待ってから poll する */
+    public final long take(final double[] dst) throws InterruptedException {
+        while (true) {
+            final long position = poll(dst);
+            if (position >= 0)
+                return position;
+            consumer = Thread.currentThread();
+            if (head.get() >= tail.get())
+                LockSupport.parkNanos(this, parkNanos);
+            consumer = null;
+            if (Thread.interrupted())
+                throw new InterruptedException();
+        }
+    }
+
+    /* いま溜まっているフレーム数 */
+    public final int size() {
+        return (int) Math.max(0, Math.min(capacity, tail.get() - head.get()));
+    }
+
+    /* これまでに溜まったフレーム数の最大値 */
+    public final long getHighWater() {
+        return highWater.get();
+    }
+
+    public final long getOffered() {
+        return offered.get();
+    }
+
+    /* 満杯のために捨てたフレーム数 */
+    public final long getDropped() {
+        return dropped.get();
+    }
+
+    @Override
+    public final String toString() {
+        return "size " + size() + "/" + capacity + ", high water " + getHighWater()
+            + ", offered " + getOffered() + ", dropped " + getDropped() + " (" + overflow + ")";
+    }
+
+}
@@ -0,0 +1,150 @@
+import java.io.IOException;
+import java.util.function.IntConsumer;
+
+/* 対角共分散の正規分布によるクラス分け(母音認識用)
+ * クラス c の次元 d の平均 μ，標準偏差 σ に対して，フレーム x の点数を
+ *   -Σ_d { log σ + (x_d - μ)^2 / (2σ^2) }
+ * とし，点数の最も大きいクラスを選ぶ(VoiceRecognition, Ex1 の元の式と同じ)．
+ * log σ の和と 1/(2σ^2) は作るときに1度だけ求めておき，フレームの点数は掛け算と足し算だけで出す．
+ * 平均などは [クラス][次元] を1本に並べて持ち，複数のフレームをまとめて処理する scoreBlock/classifyBlock は
+ * フレームを [フレーム][次元] で1本に並べた配列を受け取る */
+public final class GaussianClassifier {
+
+    // 標準偏差の下限(1フレームしかないクラスなどで 0 除算しないように)
+    private static final double minStd = 1e-9;
+
+    private final int classes;
+    private final int dimension;
+    private final double[] mean;
+    private final double[] halfInvVar;
+    private final double[] logNorm;
+
+    /* mean[c], std[c] はクラス c の各次元の平均と標準偏差 */
+    public GaussianClassifier(final double[][] mean, final double[][] std) {
+        if (mean.length < 1 || mean.length != std.length)
+            throw new IllegalArgumentException("mean and std must have the same positive number of classes: "
+                                               + mean.length + ", " + std.length);
+        this.classes = mean.length;
+        this.dimension = mean[0].length;
+        if (dimension < 1)
+            throw new IllegalArgumentException("dimension must be positive");
+        this.mean = new double[classes * dimension];
+        this.halfInvVar = new double[classes * dimension];
+        this.logNorm = new double[classes];
+        for (int c = 0; c < classes; c++) {
+            if (mean[c].length != dimension || std[c].length != dimension)
+                throw new IllegalArgumentException("class " + c + " has a different dimension");
+            for (int d = 0; d < dimension; d++) {
+                final double s = Math.max(std[c][d], minStd);
+                this.mean[c * dimension + d] = mean[c][d];
+                this.halfInvVar[c * dimension + d] = 0.5 / (s * s);
+                logNorm[c] += Math.log(s);
+            }
+        }
+    }
+
+    /* VowelModel の全クラス */
+    public static GaussianClassifier of(final VowelModel model) {
+        final int classes = model.getLabels().size();
+        final double[][] mean = new double[classes][];
+        final double[][] std = new double[classes][];
+        for (int c = 0; c < classes; c++) {
+            mean[c] = model.getMean(c);
+            std[c] = model.getStd(c);
+        }
+        return new GaussianClassifier(mean, std);
+    }
+
+    public final int getClasses() {
+        return classes;
+    }
+
+    public final int getDimension() {
+        return dimension;
+    }
+
+    /* frames[i * dimension ...] の n フレームの各クラスの点数を scores[i * classes + c] に書く */
+    public final void scoreBlock(final double[] frames, final int n, final double[] scores) {
+        if (n < 0 || frames.length < n * dimension || scores.length < n * classes)
+            throw new IllegalArgumentException("block is too short for " + n + " frames");
+        for (int i = 0; i < n; i++) {
+            final int x = i * dimension;
+            for (int c = 0; c < classes; c++) {
+                final int m = c * dimension;
+                double acc = logNorm[c];
+                for (int d = 0; d < dimension; d++) {
+                    final double diff = frames[x + d] - mean[m + d];
+                    acc += diff * diff * halfInvVar[m + d];
+                }
+                scores[i * classes + c] = -acc;
+            }
+        }
+    }
+
+    /* frames[i * dimension ...] の n フレームの最も点数の大きいクラスを result[i] に書く．
+     * scores は classes * n 個以上の作業領域 */
+    public final void classifyBlock(final double[] frames, final int n, final double[] scores, final int[] result) {
+        scoreBlock(frames, n, scores);
+        for (int i = 0; i < n; i++) {
+            int best = 0;
+            for (int c = 1; c < classes; c++)
+                if (scores[i * classes + c] > scores[i * classes + best])
+                    best = c;
+            result[i] = best;
+        }
+    }
+
+    /* 1フレーム(先頭 dimension 個)の各クラスの点数 */
+    public final void score(final double[] frame, final double[] scores) {
+        scoreBlock(frame, 1, scores);
+    }
+
+    /* 1フレームの最も点数の大きいクラス */
+    public final int classify(final double[] frame) {
+        final double[] scores = new double[classes];
+        final int[] result = new int[1];
+        classifyBlock(frame, 1, scores, result);
+        return result[0];
+    }
+
+    /* AudioPipeline の処理段(出力は各クラスの点数．ViterbiDecoder に対数尤度として渡す用) */
+    public final AudioPipeline.Stage stage() {
+        final double[] out = new double[classes];
+        return in -> {
+            score(in, out);
+            return out;
+        };
+    }
+
+    /* AudioPipeline の出力先: フレームを blockSize 個ずつ溜めてまとめてクラス分けし，結果を古い順に out に渡す */
+    public final AudioPipeline.Sink sink(final int blockSize, final IntConsumer out) {
+        if (blockSize < 1)
+            throw new IllegalArgumentException("blockSize must be positive: " + blockSize);
+        final double[] block = new double[blockSize * dimension];
+        final double[] scores = new double[blockSize * classes];
+        final int[] result = new int[blockSize];
+        return new AudioPipeline.Sink() {
+            private int n = 0;
+
+            @Override
+            public void accept(final long frame, final double[] values) {
+                System.arraycopy(values, 0, block, n * dimension, dimension);
+                if (++n == blockSize)
+                    flush();
+            }
+
+            @Override
+            public void finish() throws IOException {
+                flush();
+            }
+
+            private void flush() {
+                classifyBlock(block, n, scores, result);
+                for (int i = 0; i < n; i++)
+                    out.accept(result[i]);
+                n = 0;
+            }
+        };
+    }
+
+}
@@ -0,0 +1,42 @@
+import java.lang.invoke.MethodHandles;
+import java.util.Arrays;
+
+/* Plot*CLI をウインドウなしで実行し，チャートを -o/--outfile の画像ファイルへ直接書き出す
+ *   java HeadlessPlot PlotSpectrogramCLI [OPTIONS] <WAVFILE>
+ * Application を継承しないクラスから呼ぶので JavaFX のツールキットは起動しない(ディスプレイ不要) */
+public final class HeadlessPlot {
+
+    private static final String helpMessage =
+        MethodHandles.lookup().lookupClass().getName() + " <TOOL> [OPTIONS] <WAVFILE>\n"
+        + "TOOL: PlotWaveformCLI, PlotSpectrumCLI, PlotSpectrogramCLI, PlotRmsCLI";
+
+    private HeadlessPlot() {}
+
+    public static void main(final String[] args) throws Exception {
+        System.setProperty("java.awt.headless", "true");
+        if (args.length < 1) {
+            System.out.println(helpMessage);
+            System.exit(1);
+        }
+        final String[] toolArgs = Arrays.copyOfRange(args, 1, args.length);
+        switch (args[0]) {
+        case "PlotWaveformCLI":
+            PlotWaveformCLI.headless(toolArgs);
+            break;
+        case "PlotSpectrumCLI":
+            PlotSpectrumCLI.headless(toolArgs);
+            break;
+        case "PlotSpectrogramCLI":
+            PlotSpectrogramCLI.headless(toolArgs);
+            break;
+        case "PlotRmsCLI":
+            PlotRmsCLI.headless(toolArgs);
+            break;
+        default:
+            System.out.println("Unknown tool: " + args[0]);
+            System.out.println(helpMessage);
+            System.exit(1);
+        }
+    }
+
+}
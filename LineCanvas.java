@@ -0,0 +1,72 @@
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.paint.Color;
+
+/* 等間隔の値の列を折れ線として Canvas に描く(波形やスペクトルを毎フレーム描き直す LineChart の代わり)
+ * 値は double の配列に写して持ち，XYChart.Data は作らない．
+ * 点の数が横のピクセル数の2倍を超えるときは1ピクセル列ごとの最小値・最大値の縦線にして描く */
+public final class LineCanvas extends CanvasChart {
+
+    private double[] values = new double[0];
+    private int size = 0;
+    private double xFrom = 0.0;
+    private double xTo = 1.0;
+    private Color stroke = Color.web("#f3622d");
+
+    public LineCanvas(final NumberAxis xAxis, final NumberAxis yAxis) {
+        super(xAxis, yAxis);
+    }
+
+    public final LineCanvas setStroke(final Color stroke) {
+        this.stroke = stroke;
+        return this;
+    }
+
+    /* src の先頭 length 個を X 軸の xFrom ... xTo に等間隔に並べた折れ線にして描き直す */
+    public final void setData(final double[] src, final int length, final double xFrom, final double xTo) {
+        if (length > src.length)
+            throw new IllegalArgumentException("length = " + length + ", src.length = " + src.length);
+        if (values.length < length)
+            values = new double[length];
+        System.arraycopy(src, 0, values, 0, length);
+        this.size = length;
+        this.xFrom = xFrom;
+        this.xTo = xTo;
+        redraw();
+    }
+
+    @Override
+    protected final void draw(final GraphicsContext gc, final double width, final double height) {
+        if (size < 2)
+            return;
+        gc.setStroke(stroke);
+        gc.setLineWidth(1.0);
+        final double x0 = toX(xFrom, width);
+        final double x1 = toX(xTo, width);
+        final double dx = (x1 - x0) / (size - 1);
+        final int columns = (int) Math.ceil(Math.abs(x1 - x0));
+
+        if (size <= 2 * columns) {
+            gc.beginPath();
+            gc.moveTo(x0, toY(values[0], height));
+            for (int i = 1; i < size; i++)
+                gc.lineTo(x0 + i * dx, toY(values[i], height));
+            gc.stroke();
+            return;
+        }
+
+        /* 1ピクセル列ごとの最小値・最大値 */
+        int i = 0;
+        for (int c = 0; c < columns && i < size; c++) {
+            final int end = (int) Math.min(size, (long) (c + 1) * size / columns);
+            double lo = values[i], hi = values[i];
+            for (; i < end; i++) {
+                lo = Math.min(lo, values[i]);
+                hi = Math.max(hi, values[i]);
+            }
+            final double x = x0 + c + 0.5;
+            gc.strokeLine(x, toY(lo, height), x, toY(hi, height));
+        }
+    }
+
+}
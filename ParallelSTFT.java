@@ -0,0 +1,171 @@
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/* 短時間フーリエ変換をフレームの区間ごとに ForkJoinPool で並列に計算する
+ * フレームの切り出しは Le4MusicUtils.sliding と同じ(フレーム数 (N-1)/shiftSize+1，末尾は 0 で埋める)．
+ * 各フレームの結果は決まった行(添字)に書き込むので，スレッド数によらずフレーム順・値は逐次計算と同じになる */
+public final class ParallelSTFT {
+
+    // 1タスクが受け持つフレーム数の下限．これより少なければ分割しない
+    private static final int minFramesPerTask = 16;
+
+    private final double[] window;
+    private final int fftSize;
+    private final int bins;
+    private final int shiftSize;
+    private final ForkJoinPool pool;
+
+    /* window の長さを FFT の点数とする(2のべき乗であること) */
+    public ParallelSTFT(final double[] window, final int shiftSize) {
+        this(window, shiftSize, ForkJoinPool.commonPool());
+    }
+
+    public ParallelSTFT(final double[] window, final int shiftSize, final ForkJoinPool pool) {
+        if (window.length < 2 || Integer.bitCount(window.length) != 1)
+            throw new IllegalArgumentException("window length must be a power of 2 (>= 2): " + window.length);
+        if (shiftSize < 1)
+            throw new IllegalArgumentException("shiftSize must be positive: " + shiftSize);
+        this.window = window.clone();
+        this.fftSize = window.length;
+        this.bins = fftSize / 2 + 1;
+        this.shiftSize = shiftSize;
+        this.pool = pool;
+    }
+
+    public final int getFFTSize() {
+        return fftSize;
+    }
+
+    /* 1フレームあたりの係数の数 fftSize/2+1 */
+    public final int getBins() {
+        return bins;
+    }
+
+    public final int getShiftSize() {
+        return shiftSize;
+    }
+
+    /* 長さ length の波形に対するフレーム数 */
+    public final int getFrames(final long length) {
+        final long frames = length > 0 ? (length - 1) / shiftSize + 1 : 0;
+        if (frames > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("too many frames: " + frames);
+        return (int) frames;
+    }
+
+    /* 対数振幅スペクトログラム 20 log10 |X|．specLog[i] は i*shiftSize サンプル目から始まるフレームのもの */
+    public final double[][] specLog(final double[] waveform) {
+        final double[][] specLog = new double[getFrames(waveform.length)][bins];
+        run(source(waveform), waveform.length, (i, row) -> System.arraycopy(row, 0, specLog[i], 0, bins));
+        return specLog;
+    }
+
+    /* 対数振幅スペクトログラムを行優先で dst に書き込む(i 番目のフレームの k 番目の係数は dst[i*bins+k])．
+     * dst の長さは getFrames(waveform.length)*getBins() 以上であること */
+    public final void specLog(final double[] waveform, final double[] dst) {
+        final long size = (long) getFrames(waveform.length) * bins;
+        if (dst.length < size)
+            throw new IllegalArgumentException("dst is too short: " + dst.length + " < " + size);
+        run(source(waveform), waveform.length, (i, row) -> System.arraycopy(row, 0, dst, i * bins, bins));
+    }
+
+    /* 対数振幅スペクトログラムを storage で指定した持ち方の Spectrogram に書き込んで返す．
+     * shiftDuration はフレーム間隔 [秒] */
+    public final Spectrogram spectrogram(final double[] waveform, final double shiftDuration,
+                                         final Spectrogram.Storage storage) {
+        final Spectrogram spectrogram =
+            new Spectrogram(getFrames(waveform.length), bins, shiftDuration, storage);
+        run(source(waveform), waveform.length, spectrogram::setFrame);
+        return spectrogram;
+    }
+
+    /* WAV ファイルから必要なフレームだけを読みながら対数振幅スペクトログラムを求める．
+     * 波形全体を配列に読み込まないので，入力側のメモリ使用量はファイルの長さによらない */
+    public final Spectrogram spectrogram(final WavFileReader reader, final double shiftDuration,
+                                         final Spectrogram.Storage storage) {
+        final Spectrogram spectrogram =
+            new Spectrogram(getFrames(reader.getLength()), bins, shiftDuration, storage);
+        run(reader::readFrame, reader.getLength(), spectrogram::setFrame);
+        return spectrogram;
+    }
+
+    /* 窓を掛ける前のフレームの読み出し元．dst を offset サンプル目からの値で埋める(末尾より先は 0)．
+     * 異なる dst について並行に呼ばれる */
+    private interface Source {
+        void frame(long offset, double[] dst);
+    }
+
+    /* 1フレーム分の結果の書き込み先．異なるフレームについて並行に呼ばれる */
+    private interface Sink {
+        void put(int frame, double[] specLog);
+    }
+
+    private static Source source(final double[] waveform) {
+        return (offset, dst) -> {
+            for (int j = 0; j < dst.length; j++)
+                dst[j] = offset + j < waveform.length ? waveform[(int) offset + j] : 0.0;
+        };
+    }
+
+    private void run(final Source source, final long length, final Sink sink) {
+        final int frames = getFrames(length);
+        if (frames == 0)
+            return;
+        /* ワーカーあたり数個のタスクになるように区切る．短い波形は呼び出し元のスレッドでそのまま計算する */
+        final int tasks = Math.max(1, Math.min(pool.getParallelism() * 4, frames / minFramesPerTask));
+        final Task task = new Task(source, sink, 0, frames, (frames + tasks - 1) / tasks);
+        if (tasks == 1)
+            task.compute();
+        else
+            pool.invoke(task);
+    }
+
+    /* フレーム [from, to) を担当するタスク．grain フレーム以下になるまで二分する */
+    private final class Task extends RecursiveAction {
+
+        private static final long serialVersionUID = 1L;
+
+        private final Source source;
+        private final Sink sink;
+        private final int from;
+        private final int to;
+        private final int grain;
+
+        Task(final Source source, final Sink sink, final int from, final int to, final int grain) {
+            this.source = source;
+            this.sink = sink;
+            this.from = from;
+            this.to = to;
+            this.grain = grain;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from > grain) {
+                final int mid = (from + to) >>> 1;
+                invokeAll(new Task(source, sink, from, mid, grain),
+                          new Task(source, sink, mid, to, grain));
+                return;
+            }
+
+            /* 作業領域はタスク(=ワーカーが一度に受け持つ区間)ごとに1組だけ確保する */
+            final FFT fft = new FFT(fftSize);
+            final double[] frame = new double[fftSize];
+            final double[] re = new double[bins];
+            final double[] im = new double[bins];
+            final double[] out = new double[bins];
+
+            for (int i = from; i < to; i++) {
+                /* 窓を掛けたフレーム．波形の末尾より先は 0 で埋める */
+                source.frame((long) i * shiftSize, frame);
+                for (int j = 0; j < fftSize; j++)
+                    frame[j] *= window[j];
+                fft.rfft(frame, re, im);
+
+                FFT.logAbs(re, im, out, bins);
+                sink.put(i, out);
+            }
+        }
+    }
+
+}
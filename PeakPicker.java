@@ -0,0 +1,70 @@
+/* 自己相関関数のピークピッキング
+ * 直前から増加し直後に減少する点のうち値が正で最大のもの(同値なら先頭)を1回の走査で求める．
+ * 候補を配列に溜めないので，インスタンスを使い回せばフレームごとの確保は発生しない */
+public final class PeakPicker {
+
+    // 放物線補間でサブサンプル精度の位置を求めるかどうか
+    private final boolean interpolate;
+
+    // 直前の pick の結果
+    private int index;
+    private double value;
+    private double position;
+
+    public PeakPicker() {
+        this(false);
+    }
+
+    public PeakPicker(final boolean interpolate) {
+        this.interpolate = interpolate;
+    }
+
+    /* x[from] ... x[to - 1] を候補として最大のピークを探す．
+     * 両隣を参照するので 1 <= from, to <= x.length - 1 であること．見つからなければ false */
+    public final boolean pick(final double[] x, final int from, final int to) {
+        if (from < 1 || to > x.length - 1)
+            throw new IllegalArgumentException(
+                "peak range must leave one neighbour on each side: from = " + from + ", to = " + to);
+        index = 0;
+        value = 0.0;
+        position = 0.0;
+        for (int i = from; i < to; i++) {
+            if ((x[i] - x[i - 1] >= 0) && (x[i + 1] - x[i] < 0) && x[i] > value) {
+                value = x[i];
+                index = i;
+            }
+        }
+        if (index == 0)
+            return false;
+        position = index;
+        if (interpolate) {
+            /* 3点を通る放物線の頂点 */
+            final double a = x[index - 1];
+            final double b = x[index];
+            final double c = x[index + 1];
+            final double denominator = a - 2.0 * b + c;
+            if (denominator < 0.0) {
+                final double delta = 0.5 * (a - c) / denominator;
+                position = index + delta;
+                value = b - 0.25 * (a - c) * delta;
+            }
+        }
+        return true;
+    }
+
+    /* ピークの添字．見つからなかったときは 0 */
+    public final int getIndex() {
+        return index;
+    }
+
+    /* ピークの値(補間時は放物線の頂点の値) */
+    public final double getValue() {
+        return value;
+    }
+
+    /* ピークの位置．補間しないときは getIndex() と同じ */
+    public final double getPosition() {
+        return position;
+    }
+
+}
@@ -0,0 +1,106 @@
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.StandardOpenOption;
+import java.util.List;
+
+import javafx.application.Platform;
+
+import jp.ac.kyoto_u.kuis.le4music.LineChartWithSpectrogram;
+
+/* AudioPipeline の出力先 */
+public final class PipelineSinks {
+
+    private PipelineSinks() {}
+
+    /* 1フレーム1行の CSV (フレーム番号, 値...) をファイルに書く */
+    public static AudioPipeline.Sink csv(final File file) throws IOException {
+        return csv(Files.newBufferedWriter(file.toPath(), StandardCharsets.UTF_8));
+    }
+
+    /* 1フレーム1行の CSV (フレーム番号, 値...) を書き，最後に(途中で失敗しても) writer を閉じる */
+    public static AudioPipeline.Sink csv(final Writer writer) {
+        final Writer out = writer instanceof BufferedWriter ? writer : new BufferedWriter(writer);
+        return new AudioPipeline.Sink() {
+            @Override
+            public void accept(final long frame, final double[] values) throws IOException {
+                out.write(Long.toString(frame));
+                for (final double v : values) {
+                    out.write(',');
+                    out.write(Double.toString(v));
+                }
+                out.write('\n');
+            }
+
+            @Override
+            public void finish() throws IOException {
+                out.flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                out.close();
+            }
+        };
+    }
+
+    /* 値を float32 (リトルエンディアン) で行優先に並べたバイナリファイルを書く．
+     * 1フレームの値の数は一定であること(ファイルサイズ / (4 * 値の数) がフレーム数) */
+    public static AudioPipeline.Sink binary(final File file) throws IOException {
+        final FileChannel channel = FileChannel.open(file.toPath(), StandardOpenOption.CREATE,
+                                                     StandardOpenOption.WRITE, StandardOpenOption.TRUNCATE_EXISTING);
+        final ByteBuffer buffer = ByteBuffer.allocateDirect(1 << 16).order(ByteOrder.LITTLE_ENDIAN);
+        return new AudioPipeline.Sink() {
+            @Override
+            public void accept(final long frame, final double[] values) throws IOException {
+                for (final double v : values) {
+                    if (!buffer.hasRemaining())
+                        flush();
+                    buffer.putFloat((float) v);
+                }
+            }
+
+            @Override
+            public void finish() throws IOException {
+                flush();
+            }
+
+            @Override
+            public void close() throws IOException {
+                channel.close();
+            }
+
+            private void flush() throws IOException {
+                buffer.flip();
+                while (buffer.hasRemaining())
+                    channel.write(buffer);
+                buffer.clear();
+            }
+        };
+    }
+
+    /* Spectrogram の frame 番目の行に書き込む */
+    public static AudioPipeline.Sink spectrogram(final Spectrogram spectrogram) {
+        return (frame, values) -> spectrogram.setFrame((int) frame, values);
+    }
+
+    /* スペクトログラムのチャートに1フレームずつ追加する(JavaFX のスレッドで追加する) */
+    public static AudioPipeline.Sink chart(final LineChartWithSpectrogram<?, ?> chart) {
+        return (frame, values) -> {
+            final double[] specLog = values.clone();
+            Platform.runLater(() -> chart.addSpecLog(specLog));
+        };
+    }
+
+    /* 各フレームの結果のコピーを list に追加する */
+    public static AudioPipeline.Sink collect(final List<double[]> list) {
+        return (frame, values) -> list.add(values.clone());
+    }
+
+}
@@ -0,0 +1,97 @@
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* AudioPipeline の処理段
+ * 各段は作業領域と出力配列を1組だけ持って使い回す．FFT を持つのでパイプラインごとに作ること */
+public final class PipelineStages {
+
+    private PipelineStages() {}
+
+    /* 各値を k 倍する */
+    public static AudioPipeline.Stage scale(final double k) {
+        return new AudioPipeline.Stage() {
+            private double[] out = new double[0];
+
+            @Override
+            public double[] process(final double[] in) {
+                if (out.length != in.length)
+                    out = new double[in.length];
+                for (int i = 0; i < in.length; i++)
+                    out[i] = in[i] * k;
+                return out;
+            }
+        };
+    }
+
+    /* 振幅スペクトル |X[k]| (fftSize/2+1 点)．フレームは fftSize 点まで 0 で埋める */
+    public static AudioPipeline.Stage magnitude(final int fftSize) {
+        final FFT fft = new FFT(fftSize);
+        final double[] re = new double[fft.getBins()];
+        final double[] im = new double[fft.getBins()];
+        final double[] out = new double[fft.getBins()];
+        return in -> {
+            fft.rfft(in, re, im);
+            FFT.abs(re, im, out, out.length);
+            return out;
+        };
+    }
+
+    /* 対数振幅スペクトル 20 log10 |X[k]| (fftSize/2+1 点) */
+    public static AudioPipeline.Stage logSpectrum(final int fftSize) {
+        final FFT fft = new FFT(fftSize);
+        final double[] re = new double[fft.getBins()];
+        final double[] im = new double[fft.getBins()];
+        final double[] out = new double[fft.getBins()];
+        return in -> {
+            fft.rfft(in, re, im);
+            FFT.logAbs(re, im, out, out.length);
+            return out;
+        };
+    }
+
+    /* クロマベクトル(12 次元)．入力は fftSize 点の FFT の振幅スペクトル．
+     * ノートナンバー 36 ... 95 の周波数の近くのビンの振幅を音名ごとに足す(ChromaExtractor) */
+    public static AudioPipeline.Stage chroma(final int fftSize, final double sampleRate) {
+        return ChromaExtractor.of(fftSize, sampleRate).stage();
+    }
+
+    /* ケプストラムの先頭 order 個(実部)．フレームを fftSize 点で FFT し，
+     * 対数振幅スペクトルの先頭 fftSize/2 点をもう一度 FFT する(VoiceRecognition と同じ手順) */
+    public static AudioPipeline.Stage cepstrum(final int fftSize, final int order) {
+        final FFT fft = new FFT(fftSize);
+        final FFT cepstrumFFT = new FFT(fftSize / 2);
+        final double[] re = new double[fft.getBins()];
+        final double[] im = new double[fft.getBins()];
+        final double[] specLog = new double[fft.getBins()];
+        final double[] cepstrumRe = new double[cepstrumFFT.getBins()];
+        final double[] cepstrumIm = new double[cepstrumFFT.getBins()];
+        if (order < 1 || order > cepstrumRe.length)
+            throw new IllegalArgumentException("order must be in [1, " + cepstrumRe.length + "]: " + order);
+        final double[] out = new double[order];
+        return in -> {
+            fft.rfft(in, re, im);
+            FFT.logAbs(re, im, specLog, specLog.length);
+            cepstrumFFT.rfft(specLog, cepstrumRe, cepstrumIm);
+            System.arraycopy(cepstrumRe, 0, out, 0, order);
+            return out;
+        };
+    }
+
+    /* 自己相関による基本周波数 [Hz] (1 次元，無声なら 0)．フレーム長は tracker のフレーム長以上であること */
+    public static AudioPipeline.Stage f0(final AutocorrelationPitchTracker tracker) {
+        final double[] out = new double[1];
+        return in -> {
+            out[0] = tracker.estimate(in, 0);
+            return out;
+        };
+    }
+
+    /* YIN による基本周波数 [Hz] (1 次元，無声なら 0)．フレーム長は tracker のフレーム長以上であること */
+    public static AudioPipeline.Stage f0(final YinPitchTracker tracker) {
+        final double[] out = new double[1];
+        return in -> {
+            out[0] = tracker.estimate(in, 0);
+            return out;
+        };
+    }
+
+}
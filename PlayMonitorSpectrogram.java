@@ -2,15 +2,15 @@ import java.lang.invoke.MethodHandles;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Mixer;
 
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
+import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.chart.NumberAxis;
 
@@ -19,7 +19,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MathArrays;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
@@ -38,6 +37,17 @@ public final class PlayMonitorSpectrogram extends Application {
   private static final String helpMessage =
     MethodHandles.lookup().lookupClass().getName() + " [OPTIONS] <WAVFILE>";
 
+  /* 1フレーム分の解析結果 */
+  private static final class Column {
+    final double posInSec;
+    final double[] specLog;
+
+    Column(final double posInSec, final double[] specLog) {
+      this.posInSec = posInSec;
+      this.specLog = specLog;
+    }
+  }
+
   static {
     /* コマンドラインオプション定義 */
     options.addOption("h", "help", false, "display this help and exit");
@@ -66,6 +76,8 @@ public final class PlayMonitorSpectrogram extends Application {
                       "Lower bound of frequency [Hz] (Default: 0.0)");
     options.addOption(null, "freq-up", true,
                       "Upper bound of frequency [Hz] (Default: Nyquist)");
+    options.addOption(null, "canvas", false,
+                      "Draw on a Canvas instead of chart nodes");
   }
 
   @Override /* Application */
@@ -120,9 +132,6 @@ public final class PlayMonitorSpectrogram extends Application {
     builder.daemon();
     final Player player = builder.build();
 
-    /* データ処理スレッド */
-    final ExecutorService executor = Executors.newSingleThreadExecutor();
-
     /* 窓関数とFFTのサンプル数 */
     final int fftSize = 1 << Le4MusicUtils.nextPow2(player.getFrameSize());
     final int fftSize2 = (fftSize >> 1) + 1;
@@ -174,34 +183,74 @@ public final class PlayMonitorSpectrogram extends Application {
     );
     yAxis.setAnimated(false);
 
-    /* スペクトログラム表示chart */
-    final LineChartWithSpectrogram<Number, Number> chart =
-      new LineChartWithSpectrogram<>(xAxis, yAxis);
-    chart.setParameters(frames, fftSize2, player.getNyquist());
-    chart.setTitle("Spectrogram");
+    /* スペクトログラム表示chart (--canvas なら Canvas に直接描く) */
+    final Parent view;
+    final Consumer<double[]> spectrogram;
+    if (cmd.hasOption("canvas")) {
+      final SpectrogramCanvas canvas =
+        new SpectrogramCanvas(xAxis, yAxis, frames, fftSize2, player.getNyquist());
+      canvas.setAmplitudeRange(
+        Optional.ofNullable(cmd.getOptionValue("amp-lo"))
+          .map(Double::parseDouble)
+          .orElse(Le4MusicUtils.spectrumAmplitudeLowerBound),
+        Optional.ofNullable(cmd.getOptionValue("amp-up"))
+          .map(Double::parseDouble)
+          .orElse(Le4MusicUtils.spectrumAmplitudeUpperBound));
+      canvas.setTitle("Spectrogram");
+      view = canvas;
+      spectrogram = canvas::addSpecLog;
+    } else {
+      final LineChartWithSpectrogram<Number, Number> chart =
+        new LineChartWithSpectrogram<>(xAxis, yAxis);
+      chart.setParameters(frames, fftSize2, player.getNyquist());
+      chart.setTitle("Spectrogram");
+      view = chart;
+      spectrogram = chart::addSpecLog;
+    }
 
     /* グラフ描画 */
-    final Scene scene = new Scene(chart, 800, 600);
+    final Scene scene = new Scene(view, 800, 600);
     scene.getStylesheets().add("src/le4music.css");
     primaryStage.setScene(scene);
     primaryStage.setTitle(getClass().getName());
-    /* ウインドウを閉じたときに他スレッドも停止させる */
-    primaryStage.setOnCloseRequest(req -> executor.shutdown());
     primaryStage.show();
     Platform.setImplicitExit(true);
 
-    player.addAudioFrameListener((frame, position) -> executor.execute(() -> {
-      final double[] wframe = MathArrays.ebeMultiply(frame, window);
-      final Complex[] spectrum = Le4MusicUtils.rfft(Arrays.copyOf(wframe, fftSize));
-      final double posInSec = position / player.getSampleRate();
+    /* データ処理スレッドで使い回す FFT と作業領域 */
+    final FFT fft = new FFT(fftSize);
+    final double[] re = new double[fftSize2];
+    final double[] im = new double[fftSize2];
+    final double[] wframe = new double[player.getFrameSize()];
 
-      /* スペクトログラム描画 */
-      chart.addSpectrum(spectrum);
+    /* 再生のコールバックからはリングバッファにコピーするだけで渡し，FFT はデータ処理スレッドで行う */
+    final AnalysisWorker<Column> worker = new AnalysisWorker<>(
+      "spectrogram-analysis", player.getFrameSize(), 64, FrameRingBuffer.Overflow.DROP_OLDEST,
+      (frame, position) -> {
+        for (int i = 0; i < wframe.length; i++)
+          wframe[i] = frame[i] * window[i];
+        fft.rfft(wframe, re, im);
+        final double[] specLog = new double[fftSize2];
+        FFT.logAbs(re, im, specLog, fftSize2);
+        return new Column(position / player.getSampleRate(), specLog);
+      },
+      results -> {
+        /* スペクトログラム描画 */
+        for (final Column column : results)
+          spectrogram.accept(column.specLog);
 
-      /* 軸を更新 */
-      xAxis.setUpperBound(posInSec);
-      xAxis.setLowerBound(posInSec - duration);
-    }));
+        /* 軸を更新 */
+        final double posInSec = results.get(results.size() - 1).posInSec;
+        xAxis.setUpperBound(posInSec);
+        xAxis.setLowerBound(posInSec - duration);
+      });
+    player.addAudioFrameListener(worker::submit);
+
+    /* ウインドウを閉じたときに他スレッドも停止させる */
+    primaryStage.setOnCloseRequest(req -> {
+      worker.close();
+      if (verbose)
+        System.out.println(worker);
+    });
 
     /* 録音開始 */
     Platform.runLater(player::start);
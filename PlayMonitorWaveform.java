@@ -3,14 +3,14 @@ import java.io.File;
 import java.util.Optional;
 import java.util.stream.IntStream;
 import java.util.stream.Collectors;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.util.function.Consumer;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Mixer;
 
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
+import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.chart.XYChart;
 import javafx.scene.chart.LineChart;
@@ -38,6 +38,17 @@ public final class PlayMonitorWaveform extends Application {
   private static final String helpMessage =
     MethodHandles.lookup().lookupClass().getName() + " [OPTIONS] <WAVFILE>";
 
+  /* 画面に渡す1フレーム分の波形 */
+  private static final class Snapshot {
+    final double[] frame;
+    final long position;
+
+    Snapshot(final double[] frame, final long position) {
+      this.frame = frame;
+      this.position = position;
+    }
+  }
+
   static {
     /* コマンドラインオプション定義 */
     options.addOption("h", "help", false, "Display this help and exit");
@@ -58,6 +69,8 @@ public final class PlayMonitorWaveform extends Application {
     options.addOption("a", "amp-bounds", true,
                       "Upper(+) and lower(-) bounds in the amplitude direction " +
                       "(Default: " + Le4MusicUtils.waveformAmplitudeBounds + ")");
+    options.addOption(null, "canvas", false,
+                      "Draw on a Canvas instead of chart nodes");
   }
 
   @Override /* Application */
@@ -107,16 +120,6 @@ public final class PlayMonitorWaveform extends Application {
     builder.daemon();
     final Player player = builder.build();
 
-    /* データ系列を作成 */
-    final ObservableList<XYChart.Data<Number, Number>> data =
-      IntStream.range(0, player.getFrameSize())
-        .mapToObj(i -> new XYChart.Data<Number, Number>(i / player.getSampleRate(), 0.0))
-        .collect(Collectors.toCollection(FXCollections::observableArrayList));
-
-    /* データ系列に名前をつける */
-    final XYChart.Series<Number, Number> series =
-      new XYChart.Series<>("Waveform", data);
-
     /* 軸を作成 */
     final NumberAxis xAxis = new NumberAxis(
       /* axisLabel  = */ "Time (seconds)",
@@ -135,31 +138,72 @@ public final class PlayMonitorWaveform extends Application {
       /* tickUnit   = */ Le4MusicUtils.autoTickUnit(ampBounds * 2.0)
     );
 
-    /* チャートを作成 */
-    final LineChart<Number, Number> chart = new LineChart<>(xAxis, yAxis);
-    chart.setTitle("Waveform");
-    chart.setCreateSymbols(false);
-    chart.setLegendVisible(false);
-    chart.setAnimated(false);
-    chart.getData().add(series);
+    /* チャートを作成 (--canvas なら Canvas に直接描く) */
+    final Parent view;
+    final Consumer<Snapshot> draw;
+    if (cmd.hasOption("canvas")) {
+      final LineCanvas canvas = new LineCanvas(xAxis, yAxis);
+      canvas.setTitle("Waveform");
+      view = canvas;
+
+      draw = snapshot -> {
+        final double from = snapshot.position / player.getSampleRate();
+        final double to = (snapshot.position + player.getFrameSize()) / player.getSampleRate();
+        xAxis.setLowerBound(from);
+        xAxis.setUpperBound(to);
+        canvas.setData(snapshot.frame, player.getFrameSize(), from,
+                       (snapshot.position + player.getFrameSize() - 1) / player.getSampleRate());
+      };
+    } else {
+      /* データ系列を作成 */
+      final ObservableList<XYChart.Data<Number, Number>> data =
+        IntStream.range(0, player.getFrameSize())
+          .mapToObj(i -> new XYChart.Data<Number, Number>(i / player.getSampleRate(), 0.0))
+          .collect(Collectors.toCollection(FXCollections::observableArrayList));
+
+      /* データ系列に名前をつける */
+      final XYChart.Series<Number, Number> series =
+        new XYChart.Series<>("Waveform", data);
+
+      final LineChart<Number, Number> chart = new LineChart<>(xAxis, yAxis);
+      chart.setTitle("Waveform");
+      chart.setCreateSymbols(false);
+      chart.setLegendVisible(false);
+      chart.setAnimated(false);
+      chart.getData().add(series);
+      view = chart;
+
+      draw = snapshot -> {
+        IntStream.range(0, player.getFrameSize()).forEach(i -> {
+          data.get(i).setXValue((i + snapshot.position) / player.getSampleRate());
+          data.get(i).setYValue(snapshot.frame[i]);
+        });
+        xAxis.setLowerBound(snapshot.position / player.getSampleRate());
+        xAxis.setUpperBound((snapshot.position + player.getFrameSize()) / player.getSampleRate());
+      };
+    }
+
+    /* 画面には表示が追いつくたびに最新のフレームの波形だけを描く．
+     * 解析スレッドも溜まった古いフレームは飛ばし，最新のフレームだけをコピーする */
+    final AnalysisWorker<Snapshot> worker = new AnalysisWorker<>("waveform-analysis", player.getFrameSize(), 16,
+      FrameRingBuffer.Overflow.DROP_OLDEST,
+      (frame, position) -> new Snapshot(frame.clone(), position),
+      UpdateCoalescer.latest(draw));
+    player.addAudioFrameListener(worker::submit);
 
     /* 描画ウインドウ作成 */
-    final Scene scene  = new Scene(chart, 800, 600);
+    final Scene scene  = new Scene(view, 800, 600);
     scene.getStylesheets().add("src/le4music.css");
     primaryStage.setScene(scene);
     primaryStage.setTitle(getClass().getName());
+    /* ウインドウを閉じたときに解析スレッドも停止させる */
+    primaryStage.setOnCloseRequest(req -> {
+      worker.close();
+      if (verbose)
+        System.out.println(worker);
+    });
     primaryStage.show();
 
-    player.addAudioFrameListener((frame, position) -> Platform.runLater(() -> {
-      /* 最新フレームの波形を描画 */
-      IntStream.range(0, player.getFrameSize()).forEach(i -> {
-        data.get(i).setXValue((i + position) / player.getSampleRate());
-        data.get(i).setYValue(frame[i]);
-      });
-      xAxis.setLowerBound(position / player.getSampleRate());
-      xAxis.setUpperBound((position + player.getFrameSize()) / player.getSampleRate());
-    }));
-
     Platform.runLater(player::start);
   }
 
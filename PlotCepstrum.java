@@ -26,7 +26,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
 
@@ -94,43 +93,41 @@ public final class PlotCepstrum extends Application {
         final int fftSize2 = (fftSize >> 1) + 1; //s^(p-1)+1 ??
         /* 信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める．
         * 振幅を信号長で正規化する． */
-        final double[] src =
-            Arrays.stream(Arrays.copyOf(waveform, fftSize))
-                  .map(w -> w / waveform.length)
-                  .toArray();
+        final double[] src = new double[fftSize];
+        for (int i = 0; i < waveform.length; i++)
+            src[i] = waveform[i] / waveform.length;
         /* 高速フーリエ変換を行う*/
-        final Complex[] spectrum = Le4MusicUtils.rfft(src); // s^p -> s^(p-1)+1
+        final double[] re = new double[fftSize2];
+        final double[] im = new double[fftSize2];
+        new FFT(fftSize).rfft(src, re, im); // s^p -> s^(p-1)+1
 
 
         // ケプストラム求める！
 
         /* 1.対数振幅スペクトルを求める*/
-        final double[] specLog =
-            Arrays.stream(spectrum)
-                  .mapToDouble(c -> 20*Math.log10(c.abs()))
-                  .toArray();
+        final double[] specLog = new double[fftSize2];
+        FFT.logAbs(re, im, specLog, fftSize2);
 
         /* 1.5 スペクトルの配列の長さを2のn上にする*/
-        final double normalizeSpecLog[] = new double[(int)Math.pow(2,Le4MusicUtils.nextPow2(specLog.length))];
-        System.out.println(specLog.length +" " + (int)Math.pow(2,Le4MusicUtils.nextPow2(specLog.length)));
-        for(int i=0;i<specLog.length;i++){
-            normalizeSpecLog[i] = specLog[i];
-        }
-        // Arrays.stream(normalizeSpecLog).forEach(s -> System.out.println(s));
+        final int cepfftSize = 1 << Le4MusicUtils.nextPow2(specLog.length);
+        final double normalizeSpecLog[] = Arrays.copyOf(specLog, cepfftSize);
         
         
         /* 2.対数振幅スペクトルをフーリエ変換する*/
-        final Complex[] freaquencySpectrum = Le4MusicUtils.rfft(normalizeSpecLog);  //2^n -> 2^(n-1)+1
+        final FFT cepstrumFFT = new FFT(cepfftSize);
+        final double[] cepRe = new double[cepstrumFFT.getBins()];
+        final double[] cepIm = new double[cepstrumFFT.getBins()];
+        cepstrumFFT.rfft(normalizeSpecLog, cepRe, cepIm);  //2^n -> 2^(n-1)+1
 
         /* 3.フーリエ変換の結果のうち，低い周波数の成分のみを取り出す．*/
-        for(int i=14;i<freaquencySpectrum.length;i++){
-             freaquencySpectrum[i] = new Complex(0,0);
+        for(int i=14;i<cepRe.length;i++){
+             cepRe[i] = 0;
+             cepIm[i] = 0;
         }
         
          /* 4.取り出した成分のみを逆フーリエ変換する．*/
-        final double[] ans = Le4MusicUtils.irfft(freaquencySpectrum);  //2^(n-1)+1 -> 2^n  
-        final int cepfftSize = freaquencySpectrum.length;
-        final int cepfftSize2 = ans.length; //  2^n   ??
+        final double[] ans = new double[cepfftSize];
+        cepstrumFFT.irfft(cepRe, cepIm, ans);  //2^(n-1)+1 -> 2^n  
 
         
 
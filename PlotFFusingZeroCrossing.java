@@ -2,7 +2,6 @@ import java.lang.invoke.MethodHandles;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Optional;
-import java.util.stream.Stream;
 import java.util.stream.IntStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.AudioFormat;
@@ -22,7 +21,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MathArrays;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
@@ -108,45 +106,23 @@ public final class PlotFFusingZeroCrossing extends Application {
         int N = waveform.length;
         int forFrameSize = frameSize/8;
         int hopsize =forFrameSize/8;
-        double autocorrelationList[] = new double[N];
-        double ansList[] = new double[N];
-        for(int k=0;k<N-forFrameSize-1;k+=hopsize){ //すべてのフレームについて
+        final AutocorrelationPitchTracker tracker =
+            new AutocorrelationPitchTracker(sampleRate, forFrameSize, hopsize, Le4MusicUtils.f0UpperBound);
+        final double[] ansList = new double[tracker.getFrames(N)];
+        for(int i=0;i<ansList.length;i++){ //すべてのフレームについて
+            int k = i*hopsize;
             double ans;
             int zerocrossing = calNumberOfZeroCrossing(Arrays.copyOfRange(waveform,k,k+forFrameSize));
             // System.out.println(zerocrossing);
             if( zerocrossing>20){ ans=0; }
-            else{
-                for(int tau=0;tau<forFrameSize;tau++){ //全てのタウについて
-                    double autocorrelation = 0;
-                    for(int j=k;j<k+forFrameSize-tau;j++){ //和を求める用のfor
-                        autocorrelation += waveform[j]*waveform[j+tau];
-                    }
-                    autocorrelationList[tau] = autocorrelation;
-
-                }
-                // あるフレームについて511のAC(自己相関関数)が存在する。各τについて
-                
-                // ピークピッキング
-                double peakList[] = new double[waveform.length];
-                int peakIndexList[] = new int[waveform.length];
-                for(int m=3;m<autocorrelationList.length;m++){
-                    if((autocorrelationList[m-1]-autocorrelationList[m-2]>=0)&&(autocorrelationList[m]-autocorrelationList[m-1]<0)){
-                        peakList[m-3] = autocorrelationList[m-1];
-                        peakIndexList[m-3] = m-1;
-                    }            
-                }
-                int peakIndex = Le4MusicUtils.argmax(peakList);
-                int maxIndex = peakIndexList[peakIndex];
-                if(maxIndex==0 || sampleRate/maxIndex>Le4MusicUtils.f0UpperBound){ ans =  0;}
-                else{ ans = sampleRate/maxIndex;}
-            }
-            ansList[k] = ans;
+            else{ ans = tracker.estimate(waveform, k); }
+            ansList[i] = ans;
         }
         
         /* データ系列を作成*/
         final ObservableList<XYChart.Data<Number, Number>> data =
             IntStream.range(0, N/hopsize)
-                    .mapToObj(i -> new XYChart.Data<Number, Number>(i*hopsize / sampleRate, ansList[i*hopsize]))
+                    .mapToObj(i -> new XYChart.Data<Number, Number>(i*hopsize / sampleRate, i < ansList.length ? ansList[i] : 0.0))
                     .collect(Collectors.toCollection(FXCollections::observableArrayList));
 
         /* データ系列に名前をつける*/
@@ -162,13 +138,8 @@ public final class PlotFFusingZeroCrossing extends Application {
         final double[] window = MathArrays.normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize),
                 1.0);
 
-        /* 短時間フーリエ変換本体 */
-        final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                .map(frame -> Le4MusicUtils.rfft(frame));
-
-        /* 複素スペクトログラムを対数振幅スペクトログラムに */
-        final double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> 20.0 * Math.log10(c.abs())).toArray())
-                .toArray(n -> new double[n][]);
+        /* 短時間フーリエ変換本体（フレームを区切って並列に計算し，対数振幅スペクトログラムにする） */
+        final double[][] specLog = new ParallelSTFT(window, shiftSize).specLog(waveform);
 
         /* 参考： フレーム数と各フレーム先頭位置の時刻 */
         final double[] times = IntStream.range(0, specLog.length).mapToDouble(i -> i * shiftDuration).toArray();
@@ -2,7 +2,6 @@ import java.lang.invoke.MethodHandles;
 import java.io.File;
 import java.util.Arrays;
 import java.util.Optional;
-import java.util.stream.Stream;
 import java.util.stream.IntStream;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.AudioFormat;
@@ -22,7 +21,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 import org.apache.commons.math3.util.MathArrays;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
@@ -53,6 +51,7 @@ public final class PlotFundamentalFreaquency extends Application {
         options.addOption("f", "frame", true,
                 "Duration of frame [seconds] (Default: " + Le4MusicUtils.frameDuration + ")");
         options.addOption("s", "shift", true, "Duration of shift [seconds] (Default: frame/8)");
+        options.addOption(null, "acf", false, "Estimate with autocorrelation peak picking instead of YIN");
     }
 
     @Override
@@ -100,39 +99,18 @@ public final class PlotFundamentalFreaquency extends Application {
         final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
         final int fftSize2 = (fftSize >> 1) + 1;
 
-           // 自己相関関数による基本周波数導出
+           // YIN(--acf なら自己相関関数)による基本周波数導出
         int N = waveform.length;
-        int forFrameSize = frameSize/8;
-        int hopsize =forFrameSize/8;
-        double autocorrelationList[] = new double[N];
-        double ansList[] = new double[N];
-        for(int k=0;k<N-forFrameSize-1;k+=hopsize){ //すべてのフレームについて
-            for(int tau=0;tau<forFrameSize;tau++){ //全てのタウについて
-                double autocorrelation = 0;
-                for(int j=k;j<k+forFrameSize-tau;j++){ //和を求める用のfor
-                    autocorrelation += waveform[j]*waveform[j+tau];
-                }
-                autocorrelationList[tau] = autocorrelation;
-
-            }
-            // あるフレームについて511のAC(自己相関関数)が存在する。各τについて
-            
-            // ピークピッキング
-          
-            double peakList[] = new double[waveform.length];
-            int peakIndexList[] = new int[waveform.length];
-            for(int m=3;m<autocorrelationList.length;m++){
-                if((autocorrelationList[m-1]-autocorrelationList[m-2]>=0)&&(autocorrelationList[m]-autocorrelationList[m-1]<0)){
-                    peakList[m-3] = autocorrelationList[m-1];
-                    peakIndexList[m-3] = m-1;
-                }            
-            }
-            int peakIndex = Le4MusicUtils.argmax(peakList);
-            int maxIndex = peakIndexList[peakIndex];
-            double ans;
-            if(maxIndex==0 || sampleRate/maxIndex>Le4MusicUtils.f0UpperBound){ ans =  0;}
-            else{ ans = sampleRate/maxIndex;}
-            ansList[k] = ans;
+        final int hopsize;
+        final double[] ansList;
+        if (cmd.hasOption("acf")) {
+            final AutocorrelationPitchTracker tracker = tracker(sampleRate, frameDuration);
+            hopsize = tracker.getHopSize();
+            ansList = tracker.track(waveform);
+        } else {
+            final YinPitchTracker tracker = yin(sampleRate, frameDuration);
+            hopsize = tracker.getHopSize();
+            ansList = tracker.track(waveform);
         }
 
         
@@ -143,7 +121,7 @@ public final class PlotFundamentalFreaquency extends Application {
         /* データ系列を作成*/
         final ObservableList<XYChart.Data<Number, Number>> data =
             IntStream.range(0, N/hopsize)
-                    .mapToObj(i -> new XYChart.Data<Number, Number>(i*hopsize / sampleRate, ansList[i*hopsize]))
+                    .mapToObj(i -> new XYChart.Data<Number, Number>(i*hopsize / sampleRate, i < ansList.length ? ansList[i] : 0.0))
                     .collect(Collectors.toCollection(FXCollections::observableArrayList));
 
         /* データ系列に名前をつける*/
@@ -158,13 +136,8 @@ public final class PlotFundamentalFreaquency extends Application {
         final double[] window = MathArrays.normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize),
                 1.0);
 
-        /* 短時間フーリエ変換本体 */
-        final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                .map(frame -> Le4MusicUtils.rfft(frame));
-
-        /* 複素スペクトログラムを対数振幅スペクトログラムに */
-        final double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> 20.0 * Math.log10(c.abs())).toArray())
-                .toArray(n -> new double[n][]);
+        /* 短時間フーリエ変換本体（フレームを区切って並列に計算し，対数振幅スペクトログラムにする） */
+        final double[][] specLog = new ParallelSTFT(window, shiftSize).specLog(waveform);
 
 
 
@@ -214,4 +187,20 @@ public final class PlotFundamentalFreaquency extends Application {
         });
     }
 
-}
\ No newline at end of file
+    /* 基本周波数推定器．フレーム長は frameDuration の 1/8，シフトはさらにその 1/8 */
+    static AutocorrelationPitchTracker tracker(final double sampleRate, final double frameDuration) {
+        final int frameSize = (int) Math.round(frameDuration * sampleRate);
+        int forFrameSize = frameSize/8;
+        int hopsize =forFrameSize/8;
+        return new AutocorrelationPitchTracker(sampleRate, forFrameSize, hopsize, Le4MusicUtils.f0UpperBound);
+    }
+
+    /* tracker と同じフレーム長・シフトの YIN */
+    static YinPitchTracker yin(final double sampleRate, final double frameDuration) {
+        final int frameSize = (int) Math.round(frameDuration * sampleRate);
+        int forFrameSize = frameSize/8;
+        int hopsize =forFrameSize/8;
+        return new YinPitchTracker(sampleRate, forFrameSize, hopsize, Le4MusicUtils.f0UpperBound);
+    }
+
+}
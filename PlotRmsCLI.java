@@ -37,6 +37,7 @@ public final class PlotRmsCLI extends Application {
     private static final Options options = new Options();
     private static final String helpMessage =
         MethodHandles.lookup().lookupClass().getName()+" [OPTIONS] <WAVFILE>";
+    private static final int defaultWindowSize = 512;
 
     static {
         /*difine comand line option*/
@@ -46,8 +47,12 @@ public final class PlotRmsCLI extends Application {
                           MethodHandles.lookup().lookupClass().getSimpleName() +
                           "." + Le4MusicUtils.outputImageExt + ")");
         options.addOption("a", "amp-bounds", true,
-                          "Upper(+) and lower(-) bounds in the amplitude direction " +
-                          "(Default: " + Le4MusicUtils.waveformAmplitudeBounds + ")");
+                          "Lower(-) bound of RMS [dB]; the upper bound is " + Le4MusicUtils.spectrumAmplitudeUpperBound + " " +
+                          "(Default: " + -Le4MusicUtils.spectrumAmplitudeLowerBound + ")");
+        options.addOption("w", "window", true,
+                          "Window size of RMS [samples] (Default: " + defaultWindowSize + ")");
+        options.addOption("s", "shift", true,
+                          "Shift size of RMS [samples] (Default: 1)");
     }
 
    @Override
@@ -80,30 +85,20 @@ public final class PlotRmsCLI extends Application {
         stream.close();
         
         //      calculate rms vale
-        double sum = 0;
-        double rms = 0;
-        double[] rmsArray = new double[waveform.length];
-        for(int i=0;i<waveform.length-512;i++) {
-            sum = 0;
-            for(int j=i;j<=i+511;j++){
-                sum += Math.pow(waveform[j], 2);
-            }
-            rms = Math.sqrt(sum/waveform.length);
-            rmsArray[i] = 20*Math.log10(rms)
-        }
-        System.out.println(rms);
+        final int shiftSize = shiftSize(cmd);
+        final double[] rmsArray = RunningRms.db(waveform, windowSize(cmd), shiftSize);
 
         /* create data series*/
         final ObservableList<XYChart.Data<Number, Number>> data =
-            IntStream.range(0, waveform.length)
-                    .mapToObj(i -> new XYChart.Data<Number, Number>(i / sampleRate, rmsArray[i]))
+            IntStream.range(0, rmsArray.length)
+                    .mapToObj(i -> new XYChart.Data<Number, Number>((double) i * shiftSize / sampleRate, rmsArray[i]))
                     .collect(Collectors.toCollection(FXCollections::observableArrayList));
 
         
 
         /* name data seriese*/
         final XYChart.Series<Number, Number> series =
-            new XYChart.Series<>("Waveform", data);
+            new XYChart.Series<>("RMS", data);
 
         /*x axis*/
         final double duration = (waveform.length - 1) / sampleRate;
@@ -115,22 +110,19 @@ public final class PlotRmsCLI extends Application {
         );
         xAxis.setAnimated(false);
 
-        /*y axis*/
-        final double ampBounds =
-            Optional.ofNullable(cmd.getOptionValue("amp-bounds"))
-                    .map(Double::parseDouble)
-                    .orElse(Le4MusicUtils.waveformAmplitudeBounds);
+        /*y axis (dB)*/
+        final double lowerBound = lowerBound(cmd);
         final NumberAxis yAxis = new NumberAxis(
-            /* axisLabel = */ "Amplitude",
-            /* lowerBound = */ -ampBounds,
-            /* upperBound = */ +ampBounds,
-            /* tickUnit = */ Le4MusicUtils.autoTickUnit(ampBounds * 2.0)
+            /* axisLabel = */ "RMS [dB]",
+            /* lowerBound = */ lowerBound,
+            /* upperBound = */ Le4MusicUtils.spectrumAmplitudeUpperBound,
+            /* tickUnit = */ Le4MusicUtils.autoTickUnit(Le4MusicUtils.spectrumAmplitudeUpperBound - lowerBound)
         );
         yAxis.setAnimated(false);
 
         /*create a chart*/
         final LineChart<Number, Number> chart = new LineChart<>(xAxis, yAxis);
-        chart.setTitle("Waveform");
+        chart.setTitle("RMS");
         chart.setCreateSymbols(false);
         chart.setLegendVisible(false);
         chart.getData().add(series);
@@ -159,4 +151,61 @@ public final class PlotRmsCLI extends Application {
         });
     }
 
-}
\ No newline at end of file
+    /* ウインドウを作らずにチャートを画像ファイルへ出力する(HeadlessPlot から呼ぶ) */
+    static void headless(final String[] args)
+        throws IOException,
+               UnsupportedAudioFileException,
+               ParseException {
+        // deal with command line arugument
+        final CommandLine cmd = new DefaultParser().parse(options, args);
+        if (cmd.hasOption("help")) {
+            new HelpFormatter().printHelp(helpMessage, options);
+            return;
+        }
+        final String[] pargs = cmd.getArgs();
+        if (pargs.length < 1) {
+            System.out.println("WAVFILE is not given.");
+            new HelpFormatter().printHelp(helpMessage, options);
+            return;
+        }
+
+        /* read wav file*/
+        final WavFileReader reader = new WavFileReader(new File(pargs[0]));
+        final double[] waveform = reader.readAll();
+        final double sampleRate = reader.getSampleRate();
+        reader.close();
+
+        //      calculate rms vale
+        final int shiftSize = shiftSize(cmd);
+        final double[] rmsArray = RunningRms.db(waveform, windowSize(cmd), shiftSize);
+
+        final double duration = (waveform.length - 1) / sampleRate;
+        new ChartImage()
+            .title("RMS")
+            .xAxis("Time (seconds)", 0.0, duration)
+            .yAxis("RMS [dB]", lowerBound(cmd), Le4MusicUtils.spectrumAmplitudeUpperBound)
+            .line(rmsArray.length, i -> (double) i * shiftSize / sampleRate, i -> rmsArray[(int) i])
+            .write(Optional.ofNullable(cmd.getOptionValue("outfile")), PlotRmsCLI.class.getSimpleName());
+    }
+
+    /* 縦軸(dB)の下限．--amp-bounds は符号を問わず -|値| とする */
+    private static double lowerBound(final CommandLine cmd) {
+        return Optional.ofNullable(cmd.getOptionValue("amp-bounds"))
+                       .map(Double::parseDouble)
+                       .map(b -> -Math.abs(b))
+                       .orElse(Le4MusicUtils.spectrumAmplitudeLowerBound);
+    }
+
+    private static int windowSize(final CommandLine cmd) {
+        return Optional.ofNullable(cmd.getOptionValue("window"))
+                       .map(Integer::parseInt)
+                       .orElse(defaultWindowSize);
+    }
+
+    private static int shiftSize(final CommandLine cmd) {
+        return Optional.ofNullable(cmd.getOptionValue("shift"))
+                       .map(Integer::parseInt)
+                       .orElse(1);
+    }
+
+}
@@ -1,12 +1,7 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
-import java.util.Arrays;
 import java.util.Optional;
-import java.util.stream.Stream;
 import java.util.stream.IntStream;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
 import javax.imageio.ImageIO;
 
 import javafx.application.Application;
@@ -22,8 +17,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
-import org.apache.commons.math3.util.MathArrays;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
 import jp.ac.kyoto_u.kuis.le4music.LineChartWithSpectrogram;
@@ -45,6 +38,10 @@ public final class PlotSpectrogramCLI extends Application {
         options.addOption("f", "frame", true,
                 "Duration of frame [seconds] (Default: " + Le4MusicUtils.frameDuration + ")");
         options.addOption("s", "shift", true, "Duration of shift [seconds] (Default: frame/8)");
+        options.addOption(null, "storage", true,
+                "Spectrogram storage: double, float or offheap (Default: float)");
+        options.addOption(null, "csv", true, "Also write the log spectrogram to a CSV file");
+        options.addOption(null, "binary", true, "Also write the log spectrogram to a float32 binary file");
     }
 
     @Override
@@ -68,46 +65,23 @@ public final class PlotSpectrogramCLI extends Application {
 
         final File wavFile = new File(pargs[0]);
 
-        /* WAVファイル読み込み */
-        final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
-        final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
-        final AudioFormat format = stream.getFormat();
-        final double sampleRate = format.getSampleRate();
+        /* WAVファイル読み込み（メモリマップし，各フレームを必要になったときに読む） */
+        final WavFileReader reader = new WavFileReader(wavFile);
+        final double sampleRate = reader.getSampleRate();
         final double nyquist = sampleRate * 0.5;
-        stream.close();
 
-        /* 窓関数とFFTのサンプル数 */
-        final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
-                .orElse(Le4MusicUtils.frameDuration);
-        final int frameSize = (int) Math.round(frameDuration * sampleRate);
-        final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
-        final int fftSize2 = (fftSize >> 1) + 1;
-
-        /* シフトのサンプル数 */
-        final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
-                .orElse(Le4MusicUtils.frameDuration / 8);
-        final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
-
-        /* 窓関数を求め， それを正規化する */
-        final double[] window = MathArrays.normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize),
-                1.0);
-
-        /* 短時間フーリエ変換本体 */
-        final Stream<Complex[]> spectrogram = Le4MusicUtils.sliding(waveform, window, shiftSize)
-                .map(frame -> Le4MusicUtils.rfft(frame));
-
-        /* 複素スペクトログラムを対数振幅スペクトログラムに */
-        final double[][] specLog = spectrogram.map(sp -> Arrays.stream(sp).mapToDouble(c -> 20.0 * Math.log10(c.abs())).toArray())
-                .toArray(n -> new double[n][]);
+        /* 短時間フーリエ変換 */
+        final Spectrogram specLog = spectrogram(cmd, reader);
+        reader.close();
 
         /* 参考： フレーム数と各フレーム先頭位置の時刻 */
-        final double[] times = IntStream.range(0, specLog.length).mapToDouble(i -> i * shiftDuration).toArray();
+        final double[] times = IntStream.range(0, specLog.getFrames()).mapToDouble(i -> i * specLog.getShiftDuration()).toArray();
 
         /* 参考： 各フーリエ変換係数に対応する周波数 */
-        final double[] freqs = IntStream.range(0, fftSize2).mapToDouble(i -> i * sampleRate / fftSize).toArray();
+        final double[] freqs = IntStream.range(0, specLog.getBins()).mapToDouble(i -> i * nyquist / (specLog.getBins() - 1)).toArray();
 
         /* X 軸を作成 */
-        final double duration = (specLog.length - 1) * shiftDuration;
+        final double duration = specLog.getDuration();
 
         final NumberAxis xAxis = new NumberAxis(/* axisLabel = */ "Time (seconds)", /* lowerBound = */ 0.0,
                 /* upperBound = */ duration, /* tickUnit = */ Le4MusicUtils.autoTickUnit(duration));
@@ -121,9 +95,9 @@ public final class PlotSpectrogramCLI extends Application {
 
         /* チャートを作成 */
         final LineChartWithSpectrogram<Number, Number> chart = new LineChartWithSpectrogram<>(xAxis, yAxis);
-        chart.setParameters(specLog.length, fftSize2, nyquist);
+        chart.setParameters(specLog.getFrames(), specLog.getBins(), nyquist);
         chart.setTitle("Spectrogram");
-        Arrays.stream(specLog).forEach(chart::addSpecLog);
+        specLog.addTo(chart);
         chart.setCreateSymbols(false);
         chart.setLegendVisible(false);
 
@@ -150,4 +124,88 @@ public final class PlotSpectrogramCLI extends Application {
         });
     }
 
-}
\ No newline at end of file
+    /* ウインドウを作らずにチャートを画像ファイルへ出力する(HeadlessPlot から呼ぶ) */
+    static void headless(final String[] args)
+            throws IOException, UnsupportedAudioFileException, ParseException {
+        /* コマンドライン引数処理 */
+        final CommandLine cmd = new DefaultParser().parse(options, args);
+        if (cmd.hasOption("help")) {
+            new HelpFormatter().printHelp(helpMessage, options);
+            return;
+        }
+        final String[] pargs = cmd.getArgs();
+        if (pargs.length < 1) {
+            System.out.println("WAVFILE is not given.");
+            new HelpFormatter().printHelp(helpMessage, options);
+            return;
+        }
+
+        final WavFileReader reader = new WavFileReader(new File(pargs[0]));
+        final double nyquist = reader.getSampleRate() * 0.5;
+        final Spectrogram specLog = spectrogram(cmd, reader);
+        reader.close();
+
+        chart(specLog, nyquist).write(Optional.ofNullable(cmd.getOptionValue("outfile")), PlotSpectrogramCLI.class.getSimpleName());
+    }
+
+    /* オプションに従って対数振幅スペクトログラムを求める(--csv, --binary があればファイルにも書き出す) */
+    private static Spectrogram spectrogram(final CommandLine cmd, final WavFileReader reader) throws IOException {
+        final double sampleRate = reader.getSampleRate();
+
+        /* 窓関数とFFTのサンプル数 */
+        final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+                .orElse(Le4MusicUtils.frameDuration);
+        final int frameSize = (int) Math.round(frameDuration * sampleRate);
+        final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
+        final int fftSize2 = (fftSize >> 1) + 1;
+
+        /* シフトのサンプル数 */
+        final double shiftDuration = Optional.ofNullable(cmd.getOptionValue("shift")).map(Double::parseDouble)
+                .orElse(Le4MusicUtils.frameDuration / 8);
+        final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
+
+        /* スペクトログラムの持ち方．表示には float の精度で足りる */
+        final Spectrogram.Storage storage = Optional.ofNullable(cmd.getOptionValue("storage"))
+                .map(s -> Spectrogram.Storage.valueOf(s.toUpperCase().replace("OFFHEAP", "OFF_HEAP")))
+                .orElse(Spectrogram.Storage.FLOAT);
+
+        if (!cmd.hasOption("csv") && !cmd.hasOption("binary"))
+            return spectrogram(reader, frameDuration, shiftDuration, storage);
+
+        /* 書き出しがあるときはチャンクごとに読みながら，スペクトログラムとファイルへ1パスで出力する */
+        final double[] window = Windows.hanning(frameSize, fftSize);
+        final Spectrogram specLog =
+                new Spectrogram(new ParallelSTFT(window, shiftSize).getFrames(reader.getLength()), fftSize2, shiftDuration, storage);
+        final AudioPipeline pipeline = new AudioPipeline(AudioPipeline.source(reader), fftSize, shiftSize)
+                .window(window)
+                .then(PipelineStages.logSpectrum(fftSize))
+                .to(PipelineSinks.spectrogram(specLog));
+        if (cmd.hasOption("csv"))
+            pipeline.to(PipelineSinks.csv(new File(cmd.getOptionValue("csv"))));
+        if (cmd.hasOption("binary"))
+            pipeline.to(PipelineSinks.binary(new File(cmd.getOptionValue("binary"))));
+        pipeline.run();
+        return specLog;
+    }
+
+    /* 対数振幅スペクトログラム．フレームを区切って並列に計算する(窓は Windows の表を使い回す) */
+    static Spectrogram spectrogram(final WavFileReader reader, final double frameDuration,
+                                   final double shiftDuration, final Spectrogram.Storage storage) {
+        final double sampleRate = reader.getSampleRate();
+        final int frameSize = (int) Math.round(frameDuration * sampleRate);
+        final int fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
+        final int shiftSize = (int) Math.round(shiftDuration * sampleRate);
+        return new ParallelSTFT(Windows.hanning(frameSize, fftSize), shiftSize)
+                .spectrogram(reader, shiftDuration, storage);
+    }
+
+    /* ヘッドレス出力用のチャート */
+    static ChartImage chart(final Spectrogram specLog, final double nyquist) {
+        return new ChartImage()
+                .title("Spectrogram")
+                .xAxis("Time (seconds)", 0.0, specLog.getDuration())
+                .yAxis("Frequency (Hz)", 0.0, nyquist)
+                .spectrogram(specLog, nyquist);
+    }
+
+}
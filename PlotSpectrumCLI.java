@@ -26,7 +26,6 @@ import org.apache.commons.cli.DefaultParser;
 import org.apache.commons.cli.Options;
 import org.apache.commons.cli.HelpFormatter;
 
-import org.apache.commons.math3.complex.Complex;
 
 import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
 
@@ -88,24 +87,10 @@ public final class PlotSpectrumCLI extends Application {
         final double nyquist = sampleRate * 0.5;
         stream.close();
 
-        /* fftSize = 2ˆp >= waveform.length を満たすfftSize を求める
-        * 2ˆp はシフト演算で求める*/
-        final int fftSize = 1 << Le4MusicUtils.nextPow2(waveform.length);
-        final int fftSize2 = (fftSize >> 1) + 1;
-        /* 信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める．
-        * 振幅を信号長で正規化する． */
-        final double[] src =
-            Arrays.stream(Arrays.copyOf(waveform, fftSize))
-                  .map(w -> w / waveform.length)
-                  .toArray();
-        /* 高速フーリエ変換を行う*/
-        final Complex[] spectrum = Le4MusicUtils.rfft(src);
-
         /* 対数振幅スペクトルを求める*/
-        final double[] specLog =
-            Arrays.stream(spectrum)
-                  .mapToDouble(c -> 20.0 * Math.log10(c.abs()))
-                  .toArray();
+        final double[] specLog = specLog(waveform);
+        final int fftSize2 = specLog.length;
+        final int fftSize = (fftSize2 - 1) << 1;
 
         /* スペクトル配列の各要素に対応する周波数を求める．
         * 以下を満たすように線型に
@@ -128,23 +113,9 @@ public final class PlotSpectrumCLI extends Application {
         new XYChart.Series<>("spectrum", data);
 
         /* X 軸を作成*/
-        final double freqLowerBound =
-            Optional.ofNullable(cmd.getOptionValue("freq-lo"))
-                    .map(Double::parseDouble)
-                    .orElse(0.0);
-        if (freqLowerBound < 0.0)
-            throw new IllegalArgumentException(
-                "freq-lo must be non-negative: " + freqLowerBound
-            );
-        final double freqUpperBound =
-            Optional.ofNullable(cmd.getOptionValue("freq-up"))
-                    .map(Double::parseDouble)
-                    .orElse(nyquist);
-        if (freqUpperBound <= freqLowerBound)
-            throw new IllegalArgumentException(
-                "freq-up must be larger than freq-lo: " +
-                "freq-lo = " + freqLowerBound + ", freq-up = " + freqUpperBound
-            );
+        final double[] freqBounds = freqBounds(cmd, nyquist);
+        final double freqLowerBound = freqBounds[0];
+        final double freqUpperBound = freqBounds[1];
         final NumberAxis xAxis = new NumberAxis(
             /* axisLabel = */ "Frequency (Hz)",
             /* lowerBound = */ freqLowerBound,
@@ -154,19 +125,9 @@ public final class PlotSpectrumCLI extends Application {
         xAxis.setAnimated(false);
 
         /* Y 軸を作成*/
-        final double ampLowerBound =
-            Optional.ofNullable(cmd.getOptionValue("amp-lo"))
-                    .map(Double::parseDouble)
-                    .orElse(Le4MusicUtils.spectrumAmplitudeLowerBound);
-        final double ampUpperBound =
-            Optional.ofNullable(cmd.getOptionValue("amp-up"))
-                    .map(Double::parseDouble)
-                    .orElse(Le4MusicUtils.spectrumAmplitudeUpperBound);
-        if (ampUpperBound <= ampLowerBound)
-            throw new IllegalArgumentException(
-                "amp-up must be larger than amp-lo: " +
-                "amp-lo = " + ampLowerBound + ", amp-up = " + ampUpperBound
-            );
+        final double[] ampBounds = ampBounds(cmd);
+        final double ampLowerBound = ampBounds[0];
+        final double ampUpperBound = ampBounds[1];
         final NumberAxis yAxis = new NumberAxis(
             /* axisLabel = */ "Amplitude (dB)",
 
@@ -207,4 +168,104 @@ public final class PlotSpectrumCLI extends Application {
         });
     }
 
-}
\ No newline at end of file
+    /* ウインドウを作らずにチャートを画像ファイルへ出力する(HeadlessPlot から呼ぶ) */
+    static void headless(final String[] args)
+        throws IOException,
+               UnsupportedAudioFileException,
+               ParseException {
+        /* コマンドライン引数処理*/
+        final CommandLine cmd = new DefaultParser().parse(options, args);
+        if (cmd.hasOption("help")) {
+            new HelpFormatter().printHelp(helpMessage, options);
+            return;
+        }
+        final String[] pargs = cmd.getArgs();
+        if (pargs.length < 1) {
+            System.out.println("WAVFILE is not given.");
+            new HelpFormatter().printHelp(helpMessage, options);
+            return;
+        }
+
+        /* W A V ファイル読み込み*/
+        final WavFileReader reader = new WavFileReader(new File(pargs[0]));
+        final double[] waveform = reader.readAll();
+        final double sampleRate = reader.getSampleRate();
+        final double nyquist = sampleRate * 0.5;
+        reader.close();
+
+        /* 対数振幅スペクトルを求める*/
+        final double[] specLog = specLog(waveform);
+        final double[] freqBounds = freqBounds(cmd, nyquist);
+        final double[] ampBounds = ampBounds(cmd);
+
+        new ChartImage()
+            .title("Spectrum")
+            .xAxis("Frequency (Hz)", freqBounds[0], freqBounds[1])
+            .yAxis("Amplitude (dB)", ampBounds[0], ampBounds[1])
+            .line(specLog.length, i -> i * nyquist / (specLog.length - 1), i -> specLog[(int) i])
+            .write(Optional.ofNullable(cmd.getOptionValue("outfile")), PlotSpectrumCLI.class.getSimpleName());
+    }
+
+    /* 波形全体の対数振幅スペクトル(fftSize/2+1 点) */
+    private static double[] specLog(final double[] waveform) {
+        /* fftSize = 2ˆp >= waveform.length を満たすfftSize を求める
+        * 2ˆp はシフト演算で求める*/
+        final int fftSize = 1 << Le4MusicUtils.nextPow2(waveform.length);
+        final int fftSize2 = (fftSize >> 1) + 1;
+        /* 信号の長さをfftSize に伸ばし， 長さが足りない部分は0 で埋める．
+        * 振幅を信号長で正規化する． */
+        final double[] src = new double[fftSize];
+        for (int i = 0; i < waveform.length; i++)
+            src[i] = waveform[i] / waveform.length;
+        /* 高速フーリエ変換を行う*/
+        final double[] re = new double[fftSize2];
+        final double[] im = new double[fftSize2];
+        new FFT(fftSize).rfft(src, re, im);
+
+        /* 対数振幅スペクトルを求める*/
+        final double[] specLog = new double[fftSize2];
+        FFT.logAbs(re, im, specLog, fftSize2);
+        return specLog;
+    }
+
+    /* 周波数の表示範囲 {下限, 上限} [Hz] */
+    private static double[] freqBounds(final CommandLine cmd, final double nyquist) {
+        final double freqLowerBound =
+            Optional.ofNullable(cmd.getOptionValue("freq-lo"))
+                    .map(Double::parseDouble)
+                    .orElse(0.0);
+        if (freqLowerBound < 0.0)
+            throw new IllegalArgumentException(
+                "freq-lo must be non-negative: " + freqLowerBound
+            );
+        final double freqUpperBound =
+            Optional.ofNullable(cmd.getOptionValue("freq-up"))
+                    .map(Double::parseDouble)
+                    .orElse(nyquist);
+        if (freqUpperBound <= freqLowerBound)
+            throw new IllegalArgumentException(
+                "freq-up must be larger than freq-lo: " +
+                "freq-lo = " + freqLowerBound + ", freq-up = " + freqUpperBound
+            );
+        return new double[] {freqLowerBound, freqUpperBound};
+    }
+
+    /* 振幅の表示範囲 {下限, 上限} [dB] */
+    private static double[] ampBounds(final CommandLine cmd) {
+        final double ampLowerBound =
+            Optional.ofNullable(cmd.getOptionValue("amp-lo"))
+                    .map(Double::parseDouble)
+                    .orElse(Le4MusicUtils.spectrumAmplitudeLowerBound);
+        final double ampUpperBound =
+            Optional.ofNullable(cmd.getOptionValue("amp-up"))
+                    .map(Double::parseDouble)
+                    .orElse(Le4MusicUtils.spectrumAmplitudeUpperBound);
+        if (ampUpperBound <= ampLowerBound)
+            throw new IllegalArgumentException(
+                "amp-up must be larger than amp-lo: " +
+                "amp-lo = " + ampLowerBound + ", amp-up = " + ampUpperBound
+            );
+        return new double[] {ampLowerBound, ampUpperBound};
+    }
+
+}
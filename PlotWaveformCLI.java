@@ -1,12 +1,6 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
-import java.util.Arrays;
 import java.util.Optional;
-import java.util.stream.IntStream;
-import java.util.stream.Collectors;
-import javax.sound.sampled.AudioSystem;
-import javax.sound.sampled.AudioFormat;
-import javax.sound.sampled.AudioInputStream;
 import javax.imageio.ImageIO;
 
 import javafx.application.Application;
@@ -17,8 +11,6 @@ import javafx.scene.chart.XYChart;
 import javafx.scene.chart.LineChart;
 import javafx.scene.chart.NumberAxis;
 import javafx.scene.image.WritableImage;
-import javafx.collections.ObservableList;
-import javafx.collections.FXCollections;
 import javafx.embed.swing.SwingFXUtils;
 
 import org.apache.commons.cli.CommandLine;
@@ -72,27 +64,24 @@ public final class PlotWaveformCLI extends Application {
         }
         final File wavFile = new File(pargs[0]);
 
-        /* W A V ファイル読み込み*/
-        final AudioInputStream stream = AudioSystem.getAudioInputStream(wavFile);
-        final double[] waveform = Le4MusicUtils.readWaveformMonaural(stream);
-        final AudioFormat format = stream.getFormat();
-        final double sampleRate = format.getSampleRate();
-        stream.close();
-        
-
-
-        /* データ系列を作成*/
-        final ObservableList<XYChart.Data<Number, Number>> data =
-            IntStream.range(0, waveform.length)
-                    .mapToObj(i -> new XYChart.Data<Number, Number>(i / sampleRate, waveform[i]))
-                    .collect(Collectors.toCollection(FXCollections::observableArrayList));
+        /* W A V ファイル読み込み(メモリマップし，間引き用の min/max ピラミッドを作る)*/
+        final WavFileReader reader = new WavFileReader(wavFile);
+        final double sampleRate = reader.getSampleRate();
+        final WaveformLOD lod = new WaveformLOD(reader);
+        primaryStage.setOnHidden(e -> {
+            try {
+                reader.close();
+            } catch (IOException ex) {
+                ex.printStackTrace();
+            }
+        });
 
         /* データ系列に名前をつける*/
-        final XYChart.Series<Number, Number> series =
-            new XYChart.Series<>("Waveform", data);
+        final XYChart.Series<Number, Number> series = new XYChart.Series<>();
+        series.setName("Waveform");
 
         /* X 軸を作成*/
-        final double duration = (waveform.length - 1) / sampleRate;
+        final double duration = (reader.getLength() - 1) / sampleRate;
         final NumberAxis xAxis = new NumberAxis(
             /* axisLabel = */ "Time (seconds)",
             /* lowerBound = */ 0.0,
@@ -114,6 +103,9 @@ public final class PlotWaveformCLI extends Application {
         );
         yAxis.setAnimated(false);
 
+        /* データ系列を作成(画面の幅の列ごとの最小値・最大値．X 軸の範囲が変わると作り直す)*/
+        lod.bind(series, xAxis, 800, sampleRate);
+
         /* チャートを作成*/
         final LineChart<Number, Number> chart = new LineChart<>(xAxis, yAxis);
         chart.setTitle("Waveform");
@@ -146,4 +138,40 @@ public final class PlotWaveformCLI extends Application {
         });
     }
 
-}
\ No newline at end of file
+    /* ウインドウを作らずにチャートを画像ファイルへ出力する(HeadlessPlot から呼ぶ) */
+    static void headless(final String[] args)
+        throws IOException,
+               UnsupportedAudioFileException,
+               ParseException {
+        /* コマンドライン引数処理*/
+        final CommandLine cmd = new DefaultParser().parse(options, args);
+        if (cmd.hasOption("help")) {
+            new HelpFormatter().printHelp(helpMessage, options);
+            return;
+        }
+        final String[] pargs = cmd.getArgs();
+        if (pargs.length < 1) {
+            System.out.println("WAVFILE is not given.");
+            new HelpFormatter().printHelp(helpMessage, options);
+            return;
+        }
+
+        /* W A V ファイルはメモリマップし，描画しながら1サンプルずつ読む*/
+        final WavFileReader reader = new WavFileReader(new File(pargs[0]));
+        final double sampleRate = reader.getSampleRate();
+        final double duration = (reader.getLength() - 1) / sampleRate;
+        final double ampBounds =
+            Optional.ofNullable(cmd.getOptionValue("amp-bounds"))
+                    .map(Double::parseDouble)
+                    .orElse(Le4MusicUtils.waveformAmplitudeBounds);
+
+        new ChartImage()
+            .title("Waveform")
+            .xAxis("Time (seconds)", 0.0, duration)
+            .yAxis("Amplitude", -ampBounds, +ampBounds)
+            .line(reader.getLength(), i -> i / sampleRate, reader::sample)
+            .write(Optional.ofNullable(cmd.getOptionValue("outfile")), PlotWaveformCLI.class.getSimpleName());
+        reader.close();
+    }
+
+}
@@ -0,0 +1,139 @@
+import java.util.Arrays;
+
+/* Player/Recorder のフレームから和音をその場で認識する
+ *   recorder.addAudioFrameListener((frame, position) -> recognizer.accept(frame, position));
+ * 届いたフレームの末尾(最新)の frameSize サンプルを ChordRecognition と同じ ChromaExtractor.frameStage
+ * (窓なし，フレーム長で正規化，FFT 1回，クロマベクトル)と ChordScorer に通すので，同じ音にはファイルからの認識と同じ和音が付く．
+ * 処理は呼ばれたスレッド(音声のスレッド)でそのまま行い，作業領域は最初に確保して使い回すので，フレームごとのメモリ確保はない．
+ * ファイルからの認識と違う点は，無音の判定と hold による確定の遅れだけ(表示がちらつかないようにするため)．
+ * 認識した和音が hold フレーム続いたら，その和音が始まったフレームの時刻とともに Listener に知らせる(音声のスレッドから呼ばれるので，
+ * 画面を書き換えるなら Platform.runLater などで JavaFX のスレッドへ渡すこと)．
+ * RMS が silence [dB] 未満のフレームは無音(和音 -1)とする */
+public final class RealtimeChordRecognizer {
+
+    /* 和音が変わったときの通知 */
+    public interface Listener {
+        /* chord は ChordScorer の番号(無音なら -1)，time はその和音が始まったフレームの末尾の時刻 [秒] */
+        void chordChanged(int chord, double time);
+    }
+
+    public static final int silent = -1;
+
+    private final double sampleRate;
+    private final int frameSize;
+    private final Listener listener;
+
+    private final double[] src;
+    private final double[] scores = new double[ChordScorer.chords];
+    private final AudioPipeline.Stage chroma;
+    private final ChordScorer scorer;
+
+    private int hold = 2;
+    private double silence = -60.0;
+
+    // 音声のスレッドだけが書く
+    private int current = silent;
+    private int candidate = silent;
+    private int candidateFrames = 0;
+    private double candidateTime = 0.0;
+    private volatile long frames = 0;
+    private volatile long changes = 0;
+    private volatile long lastNanos = 0;
+    private volatile long maxNanos = 0;
+    private volatile long totalNanos = 0;
+
+    /* frameSize は和音認識のフレーム長(ChordRecognition.frameSize と同じにすると認識結果が揃う) */
+    public RealtimeChordRecognizer(final double sampleRate, final int frameSize, final Listener listener) {
+        if (frameSize < 2)
+            throw new IllegalArgumentException("frameSize must be at least 2: " + frameSize);
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.listener = listener;
+        this.src = new double[frameSize];
+        this.chroma = ChromaExtractor.frameStage(frameSize, sampleRate);
+        this.scorer = ChordScorer.triads();
+    }
+
+    /* 和音が何フレーム続いたら変わったとみなすか(Default: 2) */
+    public final RealtimeChordRecognizer hold(final int frames) {
+        if (frames < 1)
+            throw new IllegalArgumentException("hold must be positive: " + frames);
+        this.hold = frames;
+        return this;
+    }
+
+    /* 無音とみなす RMS [dB] (Default: -60) */
+    public final RealtimeChordRecognizer silence(final double db) {
+        this.silence = db;
+        return this;
+    }
+
+    /* 1フレームを処理する(Player/Recorder のリスナーから呼ぶ)．position はフレームの末尾の位置 [samples]．
+     * frame の末尾 frameSize サンプルを使う(短ければ後ろを 0 で埋める) */
+    public final void accept(final double[] frame, final long position) {
+        final long start = System.nanoTime();
+        final int n = Math.min(frame.length, frameSize);
+        System.arraycopy(frame, frame.length - n, src, 0, n);
+        Arrays.fill(src, n, frameSize, 0.0);
+        double power = 0.0;
+        for (int i = 0; i < n; i++)
+            power += src[i] * src[i];
+        final double rms = 10.0 * Math.log10(power / n);
+        int chord = silent;
+        if (rms >= silence)
+            chord = scorer.best(chroma.process(src), scores);
+        /* hold フレーム続いたら確定する */
+        if (chord != candidate) {
+            candidate = chord;
+            candidateFrames = 0;
+            candidateTime = position / sampleRate;
+        }
+        if (++candidateFrames >= hold && candidate != current) {
+            current = candidate;
+            changes++;
+            listener.chordChanged(current, candidateTime);
+        }
+
+        final long elapsed = System.nanoTime() - start;
+        lastNanos = elapsed;
+        totalNanos += elapsed;
+        if (elapsed > maxNanos)
+            maxNanos = elapsed;
+        frames++;
+    }
+
+    /* いまの和音(無音なら -1) */
+    public final int getChord() {
+        return current;
+    }
+
+    public final long getFrames() {
+        return frames;
+    }
+
+    /* Listener に知らせた回数 */
+    public final long getChanges() {
+        return changes;
+    }
+
+    /* 直前のフレームの処理時間 [ns] (Listener の呼び出しを含む) */
+    public final long getLastNanos() {
+        return lastNanos;
+    }
+
+    public final long getMaxNanos() {
+        return maxNanos;
+    }
+
+    public final double getMeanNanos() {
+        final long n = frames;
+        return n > 0 ? (double) totalNanos / n : 0.0;
+    }
+
+    @Override
+    public final String toString() {
+        return String.format("frames %d, changes %d, processing mean %.1f us, max %.1f us",
+                             getFrames(), getChanges(), getMeanNanos() * 1e-3, getMaxNanos() * 1e-3);
+    }
+
+}
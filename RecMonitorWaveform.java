@@ -1,6 +1,7 @@
 import java.lang.invoke.MethodHandles;
 import java.io.File;
 import java.util.Optional;
+import java.util.function.Consumer;
 import java.util.stream.IntStream;
 import java.util.stream.Collectors;
 import java.util.concurrent.ExecutorService;
@@ -8,9 +9,11 @@ import java.util.concurrent.Executors;
 import javax.sound.sampled.AudioSystem;
 import javax.sound.sampled.Mixer;
 
+import javafx.animation.AnimationTimer;
 import javafx.application.Application;
 import javafx.application.Platform;
 import javafx.stage.Stage;
+import javafx.scene.Parent;
 import javafx.scene.Scene;
 import javafx.scene.chart.XYChart;
 import javafx.scene.chart.LineChart;
@@ -38,6 +41,9 @@ public final class RecMonitorWaveform extends Application {
   private static final String helpMessage =
     MethodHandles.lookup().lookupClass().getName() + " [OPTIONS]";
 
+  // チャートの横方向の列数の上限(点の数はこの2倍まで)
+  private static final int maxColumns = 400;
+
   static {
     /* コマンドラインオプション定義 */
     options.addOption("h", "help", false, "Display this help and exit");
@@ -49,6 +55,7 @@ public final class RecMonitorWaveform extends Application {
     options.addOption("r", "rate", true, "Sampling rate [Hz]");
     options.addOption("f", "frame", true, "Frame duration [seconds]");
     options.addOption("i", "interval", true, "Frame update interval [seconds]");
+    options.addOption(null, "canvas", false, "Draw on a Canvas instead of chart nodes");
   }
 
   @Override /* Application */
@@ -91,19 +98,14 @@ public final class RecMonitorWaveform extends Application {
     builder.daemon();
     final Recorder recorder = builder.build();
 
-    /* データ処理スレッド */
+    /* データ処理スレッド．録音のコールバックからはリングバッファにコピーするだけで渡す */
     final ExecutorService executor = Executors.newSingleThreadExecutor();
+    final FrameRingBuffer ring =
+      new FrameRingBuffer(16, recorder.getFrameSize(), FrameRingBuffer.Overflow.DROP_OLDEST);
+    recorder.addAudioFrameListener(ring::offer);
 
-    /* データ系列を作成 */
-    final ObservableList<XYChart.Data<Number, Number>> data =
-      IntStream.range(-recorder.getFrameSize(), 0)
-        .mapToDouble(i -> i / recorder.getSampleRate())
-        .mapToObj(t -> new XYChart.Data<Number, Number>(t, 0.0))
-        .collect(Collectors.toCollection(FXCollections::observableArrayList));
-
-    /* データ系列に名前をつける */
-    final XYChart.Series<Number, Number> series =
-      new XYChart.Series<>("Waveform", data);
+    /* データ処理スレッドが裏の配列に波形を書いて公開し，JavaFX のスレッドは表の配列を描く */
+    final WaveformBuffer buffer = new WaveformBuffer(recorder.getFrameSize());
 
     /* 波形リアルタイム表示 */
     /* 軸を作成 */
@@ -122,37 +124,109 @@ public final class RecMonitorWaveform extends Application {
       /* tickUnit   = */ Le4MusicUtils.autoTickUnit(1.0 * 2)
     );
 
-    /* チャートを作成 */
-    final LineChart<Number, Number> chart = new LineChart<>(xAxis, yAxis);
-    chart.setTitle("Waveform");
-    chart.setLegendVisible(false);
-    /* データの追加・削除時にアニメーション（フェードイン・アウトなど）しない */
-    chart.setAnimated(false);
-    /* データアイテムに対してシンボルを作成しない */
-    chart.setCreateSymbols(false);
+    /* チャートを作成 (--canvas なら Canvas に直接描く) */
+    final Parent view;
+    // JavaFX のスレッドで表示の更新ごとに最新のフレームを描く
+    final Consumer<WaveformBuffer.Frame> draw;
+    if (cmd.hasOption("canvas")) {
+      final LineCanvas canvas = new LineCanvas(xAxis, yAxis);
+      canvas.setTitle("Waveform");
+      view = canvas;
+
+      draw = frame -> {
+        final long position = frame.getPosition();
+        final double posInSec = position / recorder.getSampleRate();
+        xAxis.setLowerBound(posInSec - frameDuration);
+        xAxis.setUpperBound(posInSec);
+        canvas.setData(frame.getSamples(), recorder.getFrameSize(),
+                       (position - recorder.getFrameSize()) / recorder.getSampleRate(),
+                       (position - 1) / recorder.getSampleRate());
+      };
+    } else {
+      /* データ系列を作成(フレームが長いときは maxColumns 列の最小値・最大値に間引く) */
+      final int columns = Math.min(recorder.getFrameSize(), maxColumns);
+      final int points = columns < recorder.getFrameSize() ? 2 * columns : columns;
+      final ObservableList<XYChart.Data<Number, Number>> data =
+        IntStream.range(0, points)
+          .mapToObj(i -> new XYChart.Data<Number, Number>(0.0, 0.0))
+          .collect(Collectors.toCollection(FXCollections::observableArrayList));
+
+      /* データ系列に名前をつける */
+      final XYChart.Series<Number, Number> series =
+        new XYChart.Series<>("Waveform", data);
+
+      final LineChart<Number, Number> chart = new LineChart<>(xAxis, yAxis);
+      chart.setTitle("Waveform");
+      chart.setLegendVisible(false);
+      /* データの追加・削除時にアニメーション（フェードイン・アウトなど）しない */
+      chart.setAnimated(false);
+      /* データアイテムに対してシンボルを作成しない */
+      chart.setCreateSymbols(false);
+
+      chart.getData().add(series);
+      view = chart;
+
+      draw = frame -> {
+        final double[] samples = frame.getSamples();
+        final long start = frame.getPosition() - recorder.getFrameSize();
+        for (int c = 0; c < columns; c++) {
+          final int from = (int) ((long) c * samples.length / columns);
+          final int to = (int) ((long) (c + 1) * samples.length / columns);
+          final double t = (start + from) / recorder.getSampleRate();
+          if (points == columns) {
+            data.get(c).setXValue(t);
+            data.get(c).setYValue(samples[from]);
+            continue;
+          }
+          double lo = samples[from], hi = samples[from];
+          for (int i = from + 1; i < to; i++) {
+            lo = Math.min(lo, samples[i]);
+            hi = Math.max(hi, samples[i]);
+          }
+          data.get(2 * c).setXValue(t);
+          data.get(2 * c).setYValue(lo);
+          data.get(2 * c + 1).setXValue((start + (from + to - 1) * 0.5) / recorder.getSampleRate());
+          data.get(2 * c + 1).setYValue(hi);
+        }
+        final double posInSec = frame.getPosition() / recorder.getSampleRate();
+        xAxis.setLowerBound(posInSec - frameDuration);
+        xAxis.setUpperBound(posInSec);
+      };
+    }
 
-    chart.getData().add(series);
+    /* リングバッファから取り出したフレームをそのまま裏の配列に書いて公開する */
+    executor.execute(() -> {
+      try {
+        while (!Thread.currentThread().isInterrupted())
+          buffer.publish(ring.take(buffer.back()));
+      } catch (InterruptedException e) {
+        // ウインドウが閉じられた
+      }
+    });
+
+    /* 表示の更新ごとに，新しく公開されたフレームがあれば描く */
+    final AnimationTimer timer = new AnimationTimer() {
+      @Override public void handle(final long now) {
+        if (buffer.update())
+          draw.accept(buffer.front());
+      }
+    };
+    timer.start();
 
     /* 描画ウインドウ作成 */
-    final Scene scene  = new Scene(chart, 800, 600);
+    final Scene scene  = new Scene(view, 800, 600);
     scene.getStylesheets().add("src/le4music.css");
     primaryStage.setScene(scene);
     primaryStage.setTitle(getClass().getName());
     /* ウインドウを閉じたときに他スレッドも停止させる */
-    primaryStage.setOnCloseRequest(req -> executor.shutdown());
+    primaryStage.setOnCloseRequest(req -> {
+      timer.stop();
+      executor.shutdownNow();
+      if (verbose)
+        System.out.println(ring + ", not drawn " + buffer.getDropped());
+    });
     primaryStage.show();
 
-    recorder.addAudioFrameListener((frame, position) -> executor.execute(() -> {
-      IntStream.range(0, recorder.getFrameSize()).forEach(i -> {
-        final XYChart.Data<Number, Number> datum = data.get(i);
-        datum.setXValue((i + position - recorder.getFrameSize()) / recorder.getSampleRate());
-        datum.setYValue(frame[i]);
-      });
-      final double posInSec = position / recorder.getSampleRate();
-      xAxis.setLowerBound(posInSec - frameDuration);
-      xAxis.setUpperBound(posInSec);
-    }));
-
     /* 録音開始 */
     Platform.runLater(recorder::start);
   }
@@ -0,0 +1,106 @@
+/* 移動窓の RMS を1サンプルごとに O(1) で更新する
+ * 窓に入るサンプルの2乗を足し，窓から出るサンプルの2乗を引く．
+ * 足し引きを繰り返しても誤差が溜まらないように和は補償付き加算(Kahan)で保持する */
+public final class RunningRms {
+
+    private final int windowSize;
+
+    // 窓内の各サンプルの2乗（リングバッファ）
+    private final double[] squares;
+    private int head = 0;
+    private long count = 0;
+
+    // 2乗和とその補償項
+    private double sum = 0.0;
+    private double compensation = 0.0;
+
+    public RunningRms(final int windowSize) {
+        if (windowSize < 1)
+            throw new IllegalArgumentException("windowSize must be positive: " + windowSize);
+        this.windowSize = windowSize;
+        this.squares = new double[windowSize];
+    }
+
+    public final int getWindowSize() {
+        return windowSize;
+    }
+
+    /* 1サンプル追加する．窓が埋まっていれば最も古いサンプルが抜ける */
+    public final void push(final double sample) {
+        final double square = sample * sample;
+        if (count >= windowSize)
+            add(-squares[head]);
+        add(square);
+        squares[head] = square;
+        head = (head + 1) % windowSize;
+        count++;
+    }
+
+    /* samples[from] ... samples[to - 1] を順に追加する */
+    public final void push(final double[] samples, final int from, final int to) {
+        for (int i = from; i < to; i++)
+            push(samples[i]);
+    }
+
+    /* Recorder/Player のフレーム用．フレームの末尾 newSamples 個だけが前回から増えた分なのでそれだけ追加する
+     * (窓長をフレーム長に合わせれば毎フレーム全体の RMS が得られる) */
+    public final void pushFrame(final double[] frame, final int newSamples) {
+        final int n = Math.min(newSamples, frame.length);
+        push(frame, frame.length - n, frame.length);
+    }
+
+    /* 窓が一度でも埋まったか */
+    public final boolean isFull() {
+        return count >= windowSize;
+    }
+
+    /* 窓内の2乗平均．窓が埋まるまでは入っているサンプル数で割る */
+    public final double meanSquare() {
+        if (count == 0)
+            return 0.0;
+        // 打ち消し誤差で僅かに負になることがあるので 0 で止める
+        return Math.max(sum, 0.0) / Math.min(count, windowSize);
+    }
+
+    public final double rms() {
+        return Math.sqrt(meanSquare());
+    }
+
+    /* RMS [dB] */
+    public final double db() {
+        return 20.0 * Math.log10(rms());
+    }
+
+    public final void reset() {
+        java.util.Arrays.fill(squares, 0.0);
+        head = 0;
+        count = 0;
+        sum = 0.0;
+        compensation = 0.0;
+    }
+
+    /* 波形全体の RMS [dB]．i 番目の値は i*hopSize サンプル目から始まる窓のもの */
+    public static double[] db(final double[] waveform, final int windowSize, final int hopSize) {
+        if (hopSize < 1)
+            throw new IllegalArgumentException("hopSize must be positive: " + hopSize);
+        final int frames = waveform.length > windowSize ? (waveform.length - windowSize - 1) / hopSize + 1 : 0;
+        final double[] result = new double[frames];
+        final RunningRms rms = new RunningRms(windowSize);
+        for (int j = 0; j < waveform.length; j++) {
+            rms.push(waveform[j]);
+            final int start = j - windowSize + 1;
+            if (start >= 0 && start % hopSize == 0 && start / hopSize < frames)
+                result[start / hopSize] = rms.db();
+        }
+        return result;
+    }
+
+    /* Kahan の補償付き加算 */
+    private void add(final double x) {
+        final double y = x - compensation;
+        final double t = sum + y;
+        compensation = (t - sum) - y;
+        sum = t;
+    }
+
+}
@@ -0,0 +1,79 @@
+/* ベクトルの各成分の平均と分散を逐次求める(Welford の方法)
+ * 値を1つずつ add するだけで元の値は持たないので，メモリは次元数に比例するだけで済む．
+ * 和と2乗和から求めるのと違い，平均に比べて分散が小さくても桁落ちしない */
+public final class RunningStats {
+
+    private final int dimension;
+    private long count = 0;
+    private final double[] mean;
+    // 平均からの差の2乗和
+    private final double[] m2;
+
+    public RunningStats(final int dimension) {
+        if (dimension < 1)
+            throw new IllegalArgumentException("dimension must be positive: " + dimension);
+        this.dimension = dimension;
+        this.mean = new double[dimension];
+        this.m2 = new double[dimension];
+    }
+
+    /* 個数，平均，標準偏差(個数で割ったもの)から戻す */
+    public static RunningStats of(final long count, final double[] mean, final double[] std) {
+        if (count < 0)
+            throw new IllegalArgumentException("count must be non-negative: " + count);
+        if (mean.length != std.length)
+            throw new IllegalArgumentException("mean and std differ in length: " + mean.length + ", " + std.length);
+        final RunningStats stats = new RunningStats(mean.length);
+        stats.count = count;
+        for (int d = 0; d < mean.length; d++) {
+            stats.mean[d] = mean[d];
+            stats.m2[d] = count * std[d] * std[d];
+        }
+        return stats;
+    }
+
+    public final int getDimension() {
+        return dimension;
+    }
+
+    public final long getCount() {
+        return count;
+    }
+
+    /* x の先頭 dimension 個を加える */
+    public final void add(final double[] x) {
+        if (x.length < dimension)
+            throw new IllegalArgumentException("x is shorter than dimension: " + x.length);
+        count++;
+        for (int d = 0; d < dimension; d++) {
+            final double delta = x[d] - mean[d];
+            mean[d] += delta / count;
+            m2[d] += delta * (x[d] - mean[d]);
+        }
+    }
+
+    public final double getMean(final int d) {
+        return mean[d];
+    }
+
+    /* 分散(個数で割る) */
+    public final double getVariance(final int d) {
+        return count > 0 ? m2[d] / count : 0.0;
+    }
+
+    public final double getStd(final int d) {
+        return Math.sqrt(getVariance(d));
+    }
+
+    public final double[] mean() {
+        return mean.clone();
+    }
+
+    public final double[] std() {
+        final double[] std = new double[dimension];
+        for (int d = 0; d < dimension; d++)
+            std[d] = getStd(d);
+        return std;
+    }
+
+}
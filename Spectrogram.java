@@ -0,0 +1,187 @@
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.FloatBuffer;
+
+import jp.ac.kyoto_u.kuis.le4music.LineChartWithSpectrogram;
+
+/* 対数振幅スペクトログラムを1本の連続した配列(行優先)で持つ
+ * double[][] と違いフレームごとの配列・ヘッダを持たず，float にすれば容量は半分になる．
+ * i 番目のフレームの k 番目の係数は data[(offset+i)*bins+k]．
+ * slice はデータを共有する部分ビューを返す */
+public final class Spectrogram {
+
+    /* 値の持ち方 */
+    public enum Storage {
+        DOUBLE,   // double[]
+        FLOAT,    // float[]
+        OFF_HEAP  // ヒープ外の float (ByteBuffer.allocateDirect)
+    }
+
+    private final Storage storage;
+    private final int frames;
+    private final int bins;
+    private final double shiftDuration;
+
+    // storage に応じてどれか1つだけを使う
+    private final double[] doubles;
+    private final float[] floats;
+    private final FloatBuffer direct;
+
+    // 元のスペクトログラムでの先頭フレーム(slice 用)
+    private final int offset;
+
+    /* frames フレーム × bins 係数，フレーム間隔 shiftDuration [秒] */
+    public Spectrogram(final int frames, final int bins, final double shiftDuration, final Storage storage) {
+        if (frames < 0 || bins < 1)
+            throw new IllegalArgumentException("invalid size: frames = " + frames + ", bins = " + bins);
+        final long size = (long) frames * bins;
+        final long limit = storage == Storage.OFF_HEAP ? Integer.MAX_VALUE / Float.BYTES : Integer.MAX_VALUE - 8;
+        if (size > limit)
+            throw new IllegalArgumentException("spectrogram is too large: " + frames + " x " + bins);
+        this.storage = storage;
+        this.frames = frames;
+        this.bins = bins;
+        this.shiftDuration = shiftDuration;
+        this.offset = 0;
+        this.doubles = storage == Storage.DOUBLE ? new double[(int) size] : null;
+        this.floats = storage == Storage.FLOAT ? new float[(int) size] : null;
+        this.direct = storage == Storage.OFF_HEAP
+            ? ByteBuffer.allocateDirect((int) size * Float.BYTES).order(ByteOrder.nativeOrder()).asFloatBuffer()
+            : null;
+    }
+
+    private Spectrogram(final Spectrogram base, final int offset, final int frames) {
+        this.storage = base.storage;
+        this.frames = frames;
+        this.bins = base.bins;
+        this.shiftDuration = base.shiftDuration;
+        this.doubles = base.doubles;
+        this.floats = base.floats;
+        this.direct = base.direct;
+        this.offset = offset;
+    }
+
+    public final Storage getStorage() {
+        return storage;
+    }
+
+    public final int getFrames() {
+        return frames;
+    }
+
+    public final int getBins() {
+        return bins;
+    }
+
+    /* フレーム間隔 [秒] */
+    public final double getShiftDuration() {
+        return shiftDuration;
+    }
+
+    /* 先頭フレームから最終フレームまでの時間 [秒] */
+    public final double getDuration() {
+        return Math.max(frames - 1, 0) * shiftDuration;
+    }
+
+    /* 時刻 time [秒] を含むフレーム．範囲外なら -1 */
+    public final int frameAt(final double time) {
+        final int i = (int) Math.floor(time / shiftDuration);
+        return 0 <= i && i < frames ? i : -1;
+    }
+
+    public final double get(final int frame, final int bin) {
+        final int i = index(frame, bin);
+        switch (storage) {
+        case DOUBLE:
+            return doubles[i];
+        case FLOAT:
+            return floats[i];
+        default:
+            return direct.get(i);
+        }
+    }
+
+    public final void set(final int frame, final int bin, final double value) {
+        final int i = index(frame, bin);
+        switch (storage) {
+        case DOUBLE:
+            doubles[i] = value;
+            break;
+        case FLOAT:
+            floats[i] = (float) value;
+            break;
+        default:
+            direct.put(i, (float) value);
+        }
+    }
+
+    /* frame 番目のフレームを dst の先頭 bins 個にコピーする */
+    public final double[] getFrame(final int frame, final double[] dst) {
+        final int base = index(frame, 0);
+        switch (storage) {
+        case DOUBLE:
+            System.arraycopy(doubles, base, dst, 0, bins);
+            break;
+        case FLOAT:
+            for (int k = 0; k < bins; k++)
+                dst[k] = floats[base + k];
+            break;
+        default:
+            for (int k = 0; k < bins; k++)
+                dst[k] = direct.get(base + k);
+        }
+        return dst;
+    }
+
+    /* frame 番目のフレームを新しい配列で返す */
+    public final double[] getFrame(final int frame) {
+        return getFrame(frame, new double[bins]);
+    }
+
+    /* src の先頭 bins 個を frame 番目のフレームに書き込む．
+     * 異なるフレームへの書き込みは別々のスレッドから同時に行ってよい */
+    public final void setFrame(final int frame, final double[] src) {
+        final int base = index(frame, 0);
+        switch (storage) {
+        case DOUBLE:
+            System.arraycopy(src, 0, doubles, base, bins);
+            break;
+        case FLOAT:
+            for (int k = 0; k < bins; k++)
+                floats[base + k] = (float) src[k];
+            break;
+        default:
+            /* 絶対位置の put は position を動かさないので並行に書き込める */
+            for (int k = 0; k < bins; k++)
+                direct.put(base + k, (float) src[k]);
+        }
+    }
+
+    /* フレーム [from, to) の部分ビュー(データは共有) */
+    public final Spectrogram slice(final int from, final int to) {
+        if (from < 0 || to > frames || from > to)
+            throw new IllegalArgumentException("invalid frame range: [" + from + ", " + to + ") of " + frames);
+        return new Spectrogram(this, offset + from, to - from);
+    }
+
+    /* 時刻 [startTime, endTime) [秒] に先頭が入るフレームの部分ビュー */
+    public final Spectrogram sliceByTime(final double startTime, final double endTime) {
+        final int from = (int) Math.min(frames, Math.max(0, Math.ceil(startTime / shiftDuration)));
+        final int to = (int) Math.min(frames, Math.max(from, Math.ceil(endTime / shiftDuration)));
+        return slice(from, to);
+    }
+
+    /* 全フレームを順にチャートに追加する．
+     * チャートが配列を保持してもよいようにフレームごとに新しい配列を渡す */
+    public final void addTo(final LineChartWithSpectrogram<?, ?> chart) {
+        for (int i = 0; i < frames; i++)
+            chart.addSpecLog(getFrame(i));
+    }
+
+    private int index(final int frame, final int bin) {
+        if (frame < 0 || frame >= frames || bin < 0 || bin >= bins)
+            throw new IndexOutOfBoundsException("frame = " + frame + ", bin = " + bin);
+        return (offset + frame) * bins + bin;
+    }
+
+}
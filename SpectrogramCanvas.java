@@ -0,0 +1,80 @@
+import javafx.scene.canvas.GraphicsContext;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.image.PixelFormat;
+import javafx.scene.image.WritableImage;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* スペクトログラムを Canvas に描く(LineChartWithSpectrogram の代わり)
+ * frames 列 x bins 行の WritableImage を環状に使い，addSpecLog では1列分のピクセルだけを PixelWriter で書き換える．
+ * 描画は古い側と新しい側の2枚に分けて drawImage するだけなので，フレームを足すたびに全体をずらす必要はない．
+ * 横軸は最新のフレームが右端，縦軸は Y 軸の範囲の周波数(0 ... nyquist のうち) */
+public final class SpectrogramCanvas extends CanvasChart {
+
+    private final int frames;
+    private final int bins;
+    private final double nyquist;
+    private final WritableImage image;
+    // 1列分のピクセル(上が高い周波数)
+    private final int[] column;
+    // 次に書く列
+    private int next = 0;
+    private double ampLower = Le4MusicUtils.spectrumAmplitudeLowerBound;
+    private double ampUpper = Le4MusicUtils.spectrumAmplitudeUpperBound;
+
+    public SpectrogramCanvas(final NumberAxis xAxis, final NumberAxis yAxis,
+                             final int frames, final int bins, final double nyquist) {
+        super(xAxis, yAxis);
+        if (frames < 1)
+            throw new IllegalArgumentException("frames must be positive: " + frames);
+        if (bins < 2)
+            throw new IllegalArgumentException("bins must be larger than 1: " + bins);
+        this.frames = frames;
+        this.bins = bins;
+        this.nyquist = nyquist;
+        this.image = new WritableImage(frames, bins);
+        this.column = new int[bins];
+    }
+
+    /* 色を塗り分ける振幅の範囲 [dB] */
+    public final SpectrogramCanvas setAmplitudeRange(final double lower, final double upper) {
+        if (upper <= lower)
+            throw new IllegalArgumentException(
+                "upper must be larger than lower: lower = " + lower + ", upper = " + upper);
+        this.ampLower = lower;
+        this.ampUpper = upper;
+        return this;
+    }
+
+    /* 対数振幅スペクトル(bins 点)を1列追加して描き直す */
+    public final void addSpecLog(final double[] specLog) {
+        if (specLog.length < bins)
+            throw new IllegalArgumentException("specLog is shorter than bins: " + specLog.length);
+        for (int b = 0; b < bins; b++)
+            column[bins - 1 - b] = 0xFF000000 | ChartImage.heat((specLog[b] - ampLower) / (ampUpper - ampLower));
+        image.getPixelWriter().setPixels(next, 0, 1, bins, PixelFormat.getIntArgbInstance(), column, 0, 1);
+        next = (next + 1) % frames;
+        redraw();
+    }
+
+    @Override
+    protected final void draw(final GraphicsContext gc, final double width, final double height) {
+        /* Y 軸の範囲に当たる行 */
+        final double lo = Math.max(0.0, getYAxis().getLowerBound());
+        final double up = Math.min(nyquist, getYAxis().getUpperBound());
+        if (up <= lo)
+            return;
+        final double sy = (1.0 - up / nyquist) * (bins - 1);
+        final double sh = (up - lo) / nyquist * (bins - 1);
+        final double dy = toY(up, height);
+        final double dh = toY(lo, height) - dy;
+
+        /* next ... frames-1 列(古い側)を左に，0 ... next-1 列(新しい側)を右に並べる */
+        final double columnWidth = width / frames;
+        final int older = frames - next;
+        gc.drawImage(image, next, sy, older, sh, 0.0, dy, older * columnWidth, dh);
+        if (next > 0)
+            gc.drawImage(image, 0, sy, next, sh, older * columnWidth, dy, next * columnWidth, dh);
+    }
+
+}
@@ -0,0 +1,70 @@
+import java.lang.invoke.MethodHandles;
+import java.io.File;
+import java.util.Optional;
+
+import org.apache.commons.cli.CommandLine;
+import org.apache.commons.cli.DefaultParser;
+import org.apache.commons.cli.Options;
+import org.apache.commons.cli.HelpFormatter;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* 母音の WAV ファイルから VowelModel を学習してファイルに書く
+ *   java TrainVowelModel -m vowels.model a.wav i.wav u.wav e.wav o.wav
+ * ラベルはファイル名から拡張子を除いたもの(-l で全ファイルに同じラベルを付けられる)．
+ * モデルのファイルが既にあれば読み込み，与えたファイルの分だけ統計量を足して書き直す */
+public final class TrainVowelModel {
+
+    private static final Options options = new Options();
+    private static final String helpMessage =
+        MethodHandles.lookup().lookupClass().getName() + " [OPTIONS] <WAVFILE>...";
+
+    static {
+        options.addOption("h", "help", false, "Display this help and exit");
+        options.addOption("m", "model", true, "Model file to create or update (Default: vowels.model)");
+        options.addOption("l", "label", true, "Label of all the given files (Default: file name without extension)");
+        options.addOption("f", "frame", true,
+                          "Frame duration [seconds] of a new model " +
+                          "(Default: " + Le4MusicUtils.frameDuration + ")");
+        options.addOption("n", "order", true,
+                          "Cepstral order of a new model (Default: " + VowelModel.defaultOrder + ")");
+    }
+
+    private TrainVowelModel() {}
+
+    public static void main(final String[] args) throws Exception {
+        final CommandLine cmd = new DefaultParser().parse(options, args);
+        final String[] pargs = cmd.getArgs();
+        if (cmd.hasOption("help") || pargs.length < 1) {
+            new HelpFormatter().printHelp(helpMessage, options);
+            if (!cmd.hasOption("help"))
+                System.exit(1);
+            return;
+        }
+        final File modelFile = new File(Optional.ofNullable(cmd.getOptionValue("model")).orElse("vowels.model"));
+
+        VowelModel model = null;
+        if (modelFile.exists()) {
+            model = VowelModel.load(modelFile);
+            if (cmd.hasOption("frame") || cmd.hasOption("order"))
+                System.out.println("Using the frame and order of the existing model: " + modelFile);
+        }
+        for (final String path : pargs) {
+            try (WavFileReader reader = new WavFileReader(new File(path))) {
+                if (model == null) {
+                    final double frameDuration = Optional.ofNullable(cmd.getOptionValue("frame")).map(Double::parseDouble)
+                            .orElse(Le4MusicUtils.frameDuration);
+                    final int order = Optional.ofNullable(cmd.getOptionValue("order")).map(Integer::parseInt)
+                            .orElse(VowelModel.defaultOrder);
+                    model = VowelModel.forFrameDuration(reader.getSampleRate(), frameDuration, order);
+                }
+                final String label = Optional.ofNullable(cmd.getOptionValue("label")).orElse(VowelModel.label(reader.getFile()));
+                final long frames = model.train(label, reader);
+                System.out.println(path + ": " + frames + " frames -> " + label);
+            }
+        }
+        model.save(modelFile);
+        System.out.println(modelFile + ": " + model);
+    }
+
+}
@@ -0,0 +1,108 @@
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.function.Consumer;
+
+import javafx.animation.AnimationTimer;
+
+/* 解析結果の画面への反映を表示の更新(パルス)ごとに1回にまとめる
+ * 任意のスレッドから offer した結果を溜めておき，AnimationTimer が呼ばれるたびに1回だけまとめて反映する．
+ * フレームがどれだけ速く届いても，画面の処理は表示のリフレッシュレート(通常 60 Hz)を超えない．
+ *   latest: 最新の結果だけを反映する(ラベルやスペクトルの表示用)
+ *   all:    前回から溜まった全ての結果を古い順に反映する(スペクトログラムの列や時系列の点の追加用)
+ * start/stop は JavaFX のスレッドから呼ぶこと */
+public final class UpdateCoalescer<R> {
+
+    private final Consumer<List<R>> apply;
+    private final boolean latestOnly;
+
+    // まだ反映していない結果(this で同期)
+    private List<R> pending = new ArrayList<>();
+
+    private final AtomicLong offered = new AtomicLong();
+    private final AtomicLong ticks = new AtomicLong();
+    private final AtomicLong coalesced = new AtomicLong();
+
+    private final AnimationTimer timer = new AnimationTimer() {
+        @Override
+        public void handle(final long now) {
+            tick();
+        }
+    };
+
+    private UpdateCoalescer(final Consumer<List<R>> apply, final boolean latestOnly) {
+        this.apply = apply;
+        this.latestOnly = latestOnly;
+    }
+
+    /* 表示の更新ごとに最新の結果だけを apply に渡す */
+    public static <R> UpdateCoalescer<R> latest(final Consumer<R> apply) {
+        return new UpdateCoalescer<>(batch -> apply.accept(batch.get(0)), true);
+    }
+
+    /* 表示の更新ごとに前回から溜まった全ての結果を apply に渡す */
+    public static <R> UpdateCoalescer<R> all(final Consumer<List<R>> apply) {
+        return new UpdateCoalescer<>(apply, false);
+    }
+
+    /* 結果を反映待ちにする(どのスレッドから呼んでもよい) */
+    public final void offer(final R result) {
+        offered.incrementAndGet();
+        synchronized (this) {
+            if (latestOnly && !pending.isEmpty()) {
+                pending.set(0, result);
+                coalesced.incrementAndGet();
+            } else {
+                pending.add(result);
+            }
+        }
+    }
+
+    /* latest で作ったものなら true */
+    public final boolean isLatestOnly() {
+        return latestOnly;
+    }
+
+    public final UpdateCoalescer<R> start() {
+        timer.start();
+        return this;
+    }
+
+    public final void stop() {
+        timer.stop();
+    }
+
+    public final long getOffered() {
+        return offered.get();
+    }
+
+    /* 画面に反映した回数 */
+    public final long getTicks() {
+        return ticks.get();
+    }
+
+    /* 他の結果とまとめて反映した(latest なら反映せずに捨てた)結果の数 */
+    public final long getCoalesced() {
+        return coalesced.get();
+    }
+
+    @Override
+    public final String toString() {
+        return "offered " + getOffered() + ", applied in " + getTicks() + " ticks, coalesced " + getCoalesced();
+    }
+
+    private void tick() {
+        final List<R> batch;
+        synchronized (this) {
+            if (pending.isEmpty())
+                return;
+            batch = pending;
+            pending = new ArrayList<>();
+        }
+        ticks.incrementAndGet();
+        if (!latestOnly)
+            coalesced.addAndGet(batch.size() - 1);
+        apply.accept(batch);
+    }
+
+}
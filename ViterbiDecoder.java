@@ -0,0 +1,209 @@
+import java.util.Arrays;
+import java.util.function.IntConsumer;
+
+/* フレームごとの対数尤度から，遷移確率を考慮した最も確からしいラベル列を求める(HMM の Viterbi アルゴリズム)
+ * 和音や母音のフレームごとの argmax は1フレームだけ別のラベルに飛ぶことが多いので，
+ * 「同じラベルに留まりやすい」遷移行列(sticky)で平滑化する．
+ * 対数尤度は [フレーム][状態] を1本に並べた配列で受け取り，手間は O(フレーム数 × 状態数^2)．
+ * decode は全フレームを見てから決める．逐次処理には lag フレーム遅れて決める FixedLag を使う */
+public final class ViterbiDecoder {
+
+    // FixedLag の遅れの目安 [frames]．これだけ遅らせればほとんどの場合 decode と同じ結果になる
+    public static final int defaultLag = 32;
+
+    private final int states;
+    // logTransitionT[j * states + i] は状態 i から j への遷移確率の対数(j ごとに連続するよう転置して持つ)
+    private final double[] logTransitionT;
+    private final double[] logInitial;
+
+    // decode の作業領域(呼び出しをまたいで使い回す)
+    private double[] delta;
+    private double[] next;
+    private int[] back = new int[0];
+
+    /* transition[i][j] は状態 i から j への遷移確率(各行の和は 1)．初期状態は一様 */
+    public ViterbiDecoder(final double[][] transition) {
+        this.states = transition.length;
+        if (states < 1)
+            throw new IllegalArgumentException("transition must have at least one state");
+        this.logTransitionT = new double[states * states];
+        for (int i = 0; i < states; i++) {
+            if (transition[i].length != states)
+                throw new IllegalArgumentException("transition must be square: row " + i + " has " + transition[i].length);
+            for (int j = 0; j < states; j++) {
+                if (!(transition[i][j] >= 0.0))
+                    throw new IllegalArgumentException("transition[" + i + "][" + j + "] must be non-negative: " + transition[i][j]);
+                logTransitionT[j * states + i] = Math.log(transition[i][j]);
+            }
+        }
+        this.logInitial = new double[states];
+        Arrays.fill(logInitial, -Math.log(states));
+        this.delta = new double[states];
+        this.next = new double[states];
+    }
+
+    // FixedLag 用に遷移行列を共有して作業領域だけ別に持つ
+    private ViterbiDecoder(final double[] logTransitionT, final double[] logInitial, final int states) {
+        this.states = states;
+        this.logTransitionT = logTransitionT;
+        this.logInitial = logInitial;
+        this.delta = new double[states];
+        this.next = new double[states];
+    }
+
+    /* 確率 stay で同じ状態に留まり，残りを他の状態へ等しく分ける遷移 */
+    public static ViterbiDecoder sticky(final int states, final double stay) {
+        if (!(stay > 0.0 && stay <= 1.0))
+            throw new IllegalArgumentException("stay must be in (0, 1]: " + stay);
+        final double[][] transition = new double[states][states];
+        for (int i = 0; i < states; i++)
+            for (int j = 0; j < states; j++)
+                transition[i][j] = i == j ? stay : states > 1 ? (1.0 - stay) / (states - 1) : 0.0;
+        return new ViterbiDecoder(transition);
+    }
+
+    public final int getStates() {
+        return states;
+    }
+
+    /* logLikelihood[t * states + s] の frames フレームの最も確からしい状態列を path[0 ... frames-1] に書く */
+    public final void decode(final double[] logLikelihood, final int frames, final int[] path) {
+        if (frames < 0 || logLikelihood.length < frames * states || path.length < frames)
+            throw new IllegalArgumentException("arrays are too short for " + frames + " frames");
+        if (frames == 0)
+            return;
+        if (back.length < frames * states)
+            back = new int[Math.max(frames * states, 2 * back.length)];
+        for (int s = 0; s < states; s++)
+            delta[s] = logInitial[s] + logLikelihood[s];
+        for (int t = 1; t < frames; t++)
+            step(logLikelihood, t * states, back, t * states);
+        int s = argmax(delta);
+        for (int t = frames - 1; ; t--) {
+            path[t] = s;
+            if (t == 0)
+                break;
+            s = back[t * states + s];
+        }
+    }
+
+    /* delta から1フレーム進めて delta に戻す．backOffset 以降に各状態の直前の状態を書く */
+    private void step(final double[] logLikelihood, final int offset, final int[] backRow, final int backOffset) {
+        double max = Double.NEGATIVE_INFINITY;
+        for (int j = 0; j < states; j++) {
+            final int row = j * states;
+            double best = Double.NEGATIVE_INFINITY;
+            int arg = 0;
+            for (int i = 0; i < states; i++) {
+                final double v = delta[i] + logTransitionT[row + i];
+                if (v > best) {
+                    best = v;
+                    arg = i;
+                }
+            }
+            next[j] = best + logLikelihood[offset + j];
+            backRow[backOffset + j] = arg;
+            if (next[j] > max)
+                max = next[j];
+        }
+        /* 長い列で値が際限なく小さくならないよう最大値を 0 に揃える(argmax は変わらない) */
+        final double[] tmp = delta;
+        delta = next;
+        next = tmp;
+        if (max > Double.NEGATIVE_INFINITY)
+            for (int j = 0; j < states; j++)
+                delta[j] -= max;
+    }
+
+    private int argmax(final double[] values) {
+        int best = 0;
+        for (int s = 1; s < states; s++)
+            if (values[s] > values[best])
+                best = s;
+        return best;
+    }
+
+    /* 逐次版: 1フレームずつ push し，lag フレーム前のフレームの状態をその時点の最良の経路から決める．
+     * lag が 0 なら遷移を考慮した貪欲な決定，フレーム数以上なら decode と同じ結果になる．
+     * 作業領域は作るときに確保するのでフレームごとのメモリ確保はない．元の ViterbiDecoder とは別に状態を持つ */
+    public final FixedLag fixedLag(final int lag) {
+        return new FixedLag(lag);
+    }
+
+    public final class FixedLag {
+
+        private final int lag;
+        private final ViterbiDecoder decoder;
+        // back[(t % (lag + 1)) * states + s] はフレーム t で状態 s にいるときの直前の状態
+        private final int[] back;
+        private final int[] pending;
+        private long frames = 0;
+
+        private FixedLag(final int lag) {
+            if (lag < 0)
+                throw new IllegalArgumentException("lag must be non-negative: " + lag);
+            this.lag = lag;
+            this.decoder = new ViterbiDecoder(logTransitionT, logInitial, states);
+            this.back = new int[(lag + 1) * states];
+            this.pending = new int[lag + 1];
+        }
+
+        public final int getLag() {
+            return lag;
+        }
+
+        /* logLikelihood[offset ...] の states 個を次のフレームとして加え，lag フレーム前のフレームの状態を返す
+         * (まだ lag フレーム溜まっていなければ -1) */
+        public final int push(final double[] logLikelihood, final int offset) {
+            final int row = (int) (frames % (lag + 1)) * states;
+            if (frames == 0) {
+                for (int s = 0; s < states; s++)
+                    decoder.delta[s] = logInitial[s] + logLikelihood[offset + s];
+            } else {
+                decoder.step(logLikelihood, offset, back, row);
+            }
+            frames++;
+            if (frames <= lag)
+                return -1;
+            int s = decoder.argmax(decoder.delta);
+            for (long t = frames - 1; t > frames - 1 - lag; t--)
+                s = back[(int) (t % (lag + 1)) * states + s];
+            return s;
+        }
+
+        /* 最後に1度だけ呼ぶ: まだ決めていない最後の(最大 lag 個の)フレームの状態を古い順に out に渡す */
+        public final void flush(final IntConsumer out) {
+            final int n = (int) Math.min(frames, lag);
+            if (n == 0)
+                return;
+            int s = decoder.argmax(decoder.delta);
+            for (int k = n - 1; ; k--) {
+                pending[k] = s;
+                if (k == 0)
+                    break;
+                final long t = frames - n + k;
+                s = back[(int) (t % (lag + 1)) * states + s];
+            }
+            for (int k = 0; k < n; k++)
+                out.accept(pending[k]);
+        }
+
+        /* AudioPipeline の出力先: 各フレームの値を states 個の対数尤度として受け取り，決まった状態を古い順に out に渡す */
+        public final AudioPipeline.Sink sink(final IntConsumer out) {
+            return new AudioPipeline.Sink() {
+                @Override
+                public void accept(final long frame, final double[] values) {
+                    final int s = push(values, 0);
+                    if (s >= 0)
+                        out.accept(s);
+                }
+
+                @Override
+                public void finish() {
+                    flush(out);
+                }
+            };
+        }
+    }
+
+}
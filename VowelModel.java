@@ -0,0 +1,189 @@
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* 母音ごとのケプストラムの正規分布モデル(VoiceRecognition, Ex1 の学習結果)
+ * クラスごとにフレーム数と各次数の平均・分散を RunningStats で逐次求めるだけなので，学習のメモリは次数に比例するだけで済み，
+ * 学習用のファイルを後から足してもそれまでの音声を読み直さずに平均と標準偏差を更新できる．
+ * save/load するファイルはバイナリで，フレームのパラメータ，次数，クラスごとのラベル・フレーム数・平均・標準偏差を並べる */
+public final class VowelModel {
+
+    // ファイルの先頭 "VWL1"
+    private static final int magic = 0x56574c31;
+
+    public static final int defaultOrder = 13;
+
+    private final double sampleRate;
+    private final int frameSize;
+    private final int hopSize;
+    private final int fftSize;
+    private final int order;
+    private final List<String> labels = new ArrayList<>();
+    private final List<RunningStats> stats = new ArrayList<>();
+
+    public VowelModel(final double sampleRate, final int frameSize, final int hopSize, final int order) {
+        if (sampleRate <= 0.0)
+            throw new IllegalArgumentException("sampleRate must be positive: " + sampleRate);
+        if (frameSize < 2)
+            throw new IllegalArgumentException("frameSize must be at least 2: " + frameSize);
+        if (hopSize < 1)
+            throw new IllegalArgumentException("hopSize must be positive: " + hopSize);
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.fftSize = 1 << Le4MusicUtils.nextPow2(frameSize);
+        if (order < 1 || order > fftSize / 4 + 1)
+            throw new IllegalArgumentException("order must be in [1, " + (fftSize / 4 + 1) + "]: " + order);
+        this.order = order;
+    }
+
+    /* VoiceRecognition と同じフレーム(frameDuration の 1/8，シフトはその半分) */
+    public static VowelModel forFrameDuration(final double sampleRate, final double frameDuration, final int order) {
+        final int frameSize = (int) Math.round(frameDuration * sampleRate) / 8;
+        return new VowelModel(sampleRate, frameSize, frameSize / 2, order);
+    }
+
+    /* ファイル名から拡張子を除いたもの(学習用のファイルの既定のラベル) */
+    public static String label(final File file) {
+        final String name = file.getName();
+        final int dot = name.lastIndexOf('.');
+        return dot > 0 ? name.substring(0, dot) : name;
+    }
+
+    public final double getSampleRate() {
+        return sampleRate;
+    }
+
+    public final int getFrameSize() {
+        return frameSize;
+    }
+
+    public final int getHopSize() {
+        return hopSize;
+    }
+
+    public final int getFFTSize() {
+        return fftSize;
+    }
+
+    public final int getOrder() {
+        return order;
+    }
+
+    public final List<String> getLabels() {
+        return Collections.unmodifiableList(labels);
+    }
+
+    /* ラベルのクラス番号(なければ -1) */
+    public final int indexOf(final String label) {
+        return labels.indexOf(label);
+    }
+
+    public final long getCount(final int c) {
+        return stats.get(c).getCount();
+    }
+
+    /* クラス c の各次数の平均 */
+    public final double[] getMean(final int c) {
+        return stats.get(c).mean();
+    }
+
+    /* クラス c の各次数の標準偏差(フレーム数で割る) */
+    public final double[] getStd(final int c) {
+        return stats.get(c).std();
+    }
+
+    /* label のクラス番号．なければ空のクラスを作る */
+    public final int addClass(final String label) {
+        final int c = labels.indexOf(label);
+        if (c >= 0)
+            return c;
+        labels.add(label);
+        stats.add(new RunningStats(order));
+        return labels.size() - 1;
+    }
+
+    /* 学習・認識に使うパイプライン(振幅をフレーム長で正規化し，ケプストラムの先頭 order 個を出す)．
+     * 後ろに then/to を足して run する */
+    public final AudioPipeline pipeline(final WavFileReader reader) {
+        if (reader.getSampleRate() != sampleRate)
+            throw new IllegalArgumentException("sample rate mismatch: " + reader.getFile() + " is "
+                                               + reader.getSampleRate() + " Hz, model is " + sampleRate + " Hz");
+        return new AudioPipeline(AudioPipeline.source(reader), frameSize, hopSize)
+            .pad(false)
+            .then(PipelineStages.scale(1.0 / frameSize))
+            .then(PipelineStages.cepstrum(fftSize, order));
+    }
+
+    /* reader の全フレームを label のクラスに加える(なければクラスを作る)．加えたフレーム数を返す */
+    public final long train(final String label, final WavFileReader reader) throws IOException {
+        final RunningStats s = stats.get(addClass(label));
+        return pipeline(reader)
+            .to((frame, cepstrum) -> s.add(cepstrum))
+            .run();
+    }
+
+    public final void save(final File file) throws IOException {
+        try (DataOutputStream out = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file.toPath())))) {
+            out.writeInt(magic);
+            out.writeDouble(sampleRate);
+            out.writeInt(frameSize);
+            out.writeInt(hopSize);
+            out.writeInt(order);
+            out.writeInt(labels.size());
+            for (int c = 0; c < labels.size(); c++) {
+                out.writeUTF(labels.get(c));
+                out.writeLong(getCount(c));
+                for (final double v : getMean(c))
+                    out.writeDouble(v);
+                for (final double v : getStd(c))
+                    out.writeDouble(v);
+            }
+        }
+    }
+
+    public static VowelModel load(final File file) throws IOException {
+        try (DataInputStream in = new DataInputStream(new BufferedInputStream(Files.newInputStream(file.toPath())))) {
+            if (in.readInt() != magic)
+                throw new IOException("not a vowel model: " + file);
+            final double sampleRate = in.readDouble();
+            final int frameSize = in.readInt();
+            final int hopSize = in.readInt();
+            final int order = in.readInt();
+            final VowelModel model = new VowelModel(sampleRate, frameSize, hopSize, order);
+            final int classes = in.readInt();
+            for (int c = 0; c < classes; c++) {
+                model.labels.add(in.readUTF());
+                final long count = in.readLong();
+                final double[] mean = new double[order];
+                final double[] std = new double[order];
+                for (int d = 0; d < order; d++)
+                    mean[d] = in.readDouble();
+                for (int d = 0; d < order; d++)
+                    std[d] = in.readDouble();
+                model.stats.add(RunningStats.of(count, mean, std));
+            }
+            return model;
+        }
+    }
+
+    @Override
+    public final String toString() {
+        final StringBuilder sb = new StringBuilder();
+        sb.append(sampleRate).append(" Hz, frame ").append(frameSize).append(", hop ").append(hopSize)
+          .append(", order ").append(order);
+        for (int c = 0; c < labels.size(); c++)
+            sb.append(c == 0 ? ": " : ", ").append(labels.get(c)).append(" (").append(getCount(c)).append(" frames)");
+        return sb.toString();
+    }
+
+}
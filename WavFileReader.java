@@ -0,0 +1,242 @@
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import javax.sound.sampled.UnsupportedAudioFileException;
+
+/* WAV ファイルを FileChannel.map で読む
+ * RIFF ヘッダは自前で解析し，data チャンクを区間ごとにメモリマップして必要なサンプルだけをその都度変換する．
+ * 波形全体を double[] に展開しないので，ヒープより大きいファイルも一定のメモリで走査できる．
+ * 対応形式は 8/16/24/32 bit のリニア PCM と 32/64 bit の浮動小数点．
+ * 複数チャネルのファイルは全チャネルの平均をモノラルの値とする．
+ * 読み出しは絶対位置の get だけなので，複数スレッドから同時に read してよい */
+public final class WavFileReader implements Closeable {
+
+    private static final int WAVE_FORMAT_PCM = 0x0001;
+    private static final int WAVE_FORMAT_IEEE_FLOAT = 0x0003;
+    private static final int WAVE_FORMAT_EXTENSIBLE = 0xFFFE;
+
+    // 1区間のマップの大きさの上限 [bytes]．区間の境界はサンプルフレームの境界に揃える
+    private static final long maxSegmentBytes = 1L << 30;
+
+    private final File file;
+    private final FileChannel channel;
+
+    private final boolean floating;
+    private final int channels;
+    private final int bitsPerSample;
+    private final int bytesPerSample;
+    private final int blockAlign;
+    private final float sampleRate;
+
+    // サンプルフレーム数(チャネルをまとめて1とする)
+    private final long length;
+
+    private final long segmentBytes;
+    private final ByteBuffer[] segments;
+
+    public WavFileReader(final File file) throws IOException, UnsupportedAudioFileException {
+        this.file = file;
+        this.channel = FileChannel.open(file.toPath(), StandardOpenOption.READ);
+        try {
+            final long fileSize = channel.size();
+
+            /* RIFF ヘッダ */
+            final ByteBuffer header = readAt(0, 12);
+            if (header.getInt(0) != fourCC("RIFF") || header.getInt(8) != fourCC("WAVE"))
+                throw new UnsupportedAudioFileException("not a RIFF/WAVE file: " + file);
+
+            /* チャンクを順に読み，fmt と data を探す */
+            int formatTag = -1;
+            int channels = 0;
+            int bitsPerSample = 0;
+            int blockAlign = 0;
+            float sampleRate = 0.0f;
+            long dataOffset = -1;
+            long dataSize = 0;
+            long position = 12;
+            while (position + 8 <= fileSize) {
+                final ByteBuffer chunk = readAt(position, 8);
+                final int id = chunk.getInt(0);
+                final long size = chunk.getInt(4) & 0xFFFFFFFFL;
+                final long body = position + 8;
+                if (id == fourCC("fmt ")) {
+                    if (size < 16)
+                        throw new UnsupportedAudioFileException("fmt chunk is too short: " + file);
+                    final ByteBuffer fmt = readAt(body, (int) Math.min(size, 40));
+                    formatTag = fmt.getShort(0) & 0xFFFF;
+                    channels = fmt.getShort(2) & 0xFFFF;
+                    sampleRate = fmt.getInt(4);
+                    blockAlign = fmt.getShort(12) & 0xFFFF;
+                    bitsPerSample = fmt.getShort(14) & 0xFFFF;
+                    /* WAVE_FORMAT_EXTENSIBLE ではサブフォーマット GUID の先頭2バイトが実際の形式 */
+                    if (formatTag == WAVE_FORMAT_EXTENSIBLE && size >= 26)
+                        formatTag = fmt.getShort(24) & 0xFFFF;
+                } else if (id == fourCC("data")) {
+                    dataOffset = body;
+                    /* 書き込み途中などでサイズが壊れているときはファイル末尾までとする */
+                    dataSize = Math.min(size, fileSize - body);
+                    break;
+                }
+                position = body + size + (size & 1);
+            }
+            if (formatTag < 0)
+                throw new UnsupportedAudioFileException("fmt chunk not found: " + file);
+            if (dataOffset < 0)
+                throw new UnsupportedAudioFileException("data chunk not found: " + file);
+
+            final boolean floating = formatTag == WAVE_FORMAT_IEEE_FLOAT;
+            if (!(formatTag == WAVE_FORMAT_PCM
+                  && (bitsPerSample == 8 || bitsPerSample == 16 || bitsPerSample == 24 || bitsPerSample == 32))
+                && !(floating && (bitsPerSample == 32 || bitsPerSample == 64)))
+                throw new UnsupportedAudioFileException(
+                    "unsupported format: tag = " + formatTag + ", bits = " + bitsPerSample + ": " + file);
+            if (channels < 1 || blockAlign < channels * (bitsPerSample / 8))
+                throw new UnsupportedAudioFileException(
+                    "invalid fmt chunk: channels = " + channels + ", blockAlign = " + blockAlign + ": " + file);
+
+            this.floating = floating;
+            this.channels = channels;
+            this.bitsPerSample = bitsPerSample;
+            this.bytesPerSample = bitsPerSample / 8;
+            this.blockAlign = blockAlign;
+            this.sampleRate = sampleRate;
+            this.length = dataSize / blockAlign;
+
+            /* data チャンクを区間に分けてマップする(実際に読み込まれるのは触れたページだけ) */
+            this.segmentBytes = Math.max(1, maxSegmentBytes / blockAlign) * blockAlign;
+            final long bytes = length * blockAlign;
+            final int count = (int) ((bytes + segmentBytes - 1) / segmentBytes);
+            this.segments = new ByteBuffer[count];
+            for (int s = 0; s < count; s++) {
+                final long from = s * segmentBytes;
+                segments[s] = channel.map(FileChannel.MapMode.READ_ONLY, dataOffset + from,
+                                          Math.min(segmentBytes, bytes - from))
+                                     .order(ByteOrder.LITTLE_ENDIAN);
+            }
+        } catch (IOException | UnsupportedAudioFileException | RuntimeException e) {
+            channel.close();
+            throw e;
+        }
+    }
+
+    public final File getFile() {
+        return file;
+    }
+
+    public final float getSampleRate() {
+        return sampleRate;
+    }
+
+    public final int getChannels() {
+        return channels;
+    }
+
+    public final int getBitsPerSample() {
+        return bitsPerSample;
+    }
+
+    /* 浮動小数点形式かどうか */
+    public final boolean isFloat() {
+        return floating;
+    }
+
+    /* サンプルフレーム数 */
+    public final long getLength() {
+        return length;
+    }
+
+    /* 長さ [秒] */
+    public final double getDuration() {
+        return length / (double) sampleRate;
+    }
+
+    /* index 番目のサンプル(モノラル，-1.0 ... 1.0) */
+    public final double sample(final long index) {
+        if (index < 0 || index >= length)
+            throw new IndexOutOfBoundsException("index = " + index + ", length = " + length);
+        final long byteOffset = index * blockAlign;
+        final ByteBuffer segment = segments[(int) (byteOffset / segmentBytes)];
+        final int base = (int) (byteOffset % segmentBytes);
+        if (channels == 1)
+            return decode(segment, base);
+        double sum = 0.0;
+        for (int c = 0; c < channels; c++)
+            sum += decode(segment, base + c * bytesPerSample);
+        return sum / channels;
+    }
+
+    /* position サンプル目から最大 length 個を dst[offset] 以降に書き込み，書き込んだ個数を返す */
+    public final int read(final long position, final double[] dst, final int offset, final int length) {
+        if (position < 0)
+            throw new IndexOutOfBoundsException("position = " + position);
+        final int n = (int) Math.max(0, Math.min(length, this.length - position));
+        for (int i = 0; i < n; i++)
+            dst[offset + i] = sample(position + i);
+        return n;
+    }
+
+    /* position サンプル目から dst.length 個を読む．ファイルの末尾より先は 0 で埋める */
+    public final double[] readFrame(final long position, final double[] dst) {
+        final int n = read(position, dst, 0, dst.length);
+        java.util.Arrays.fill(dst, n, dst.length, 0.0);
+        return dst;
+    }
+
+    /* 全サンプルを1本の配列で返す(Le4MusicUtils.readWaveformMonaural の代わり．短いファイル用) */
+    public final double[] readAll() {
+        if (length > Integer.MAX_VALUE - 8)
+            throw new IllegalStateException("too long to read into an array: " + length + " samples");
+        final double[] waveform = new double[(int) length];
+        read(0, waveform, 0, waveform.length);
+        return waveform;
+    }
+
+    /* マップした領域をページキャッシュへ先読みする(I/O を解析と別のスレッドで済ませておくとき用) */
+    public final WavFileReader load() {
+        for (final ByteBuffer segment : segments)
+            if (segment instanceof MappedByteBuffer)
+                ((MappedByteBuffer) segment).load();
+        return this;
+    }
+
+    @Override
+    public final void close() throws IOException {
+        channel.close();
+    }
+
+    private double decode(final ByteBuffer b, final int i) {
+        if (floating)
+            return bitsPerSample == 32 ? b.getFloat(i) : b.getDouble(i);
+        switch (bitsPerSample) {
+        case 8:
+            /* 8 bit は符号なし */
+            return ((b.get(i) & 0xFF) - 128) / 128.0;
+        case 16:
+            return b.getShort(i) / 32768.0;
+        case 24:
+            return ((b.get(i) & 0xFF) | (b.get(i + 1) & 0xFF) << 8 | b.get(i + 2) << 16) / 8388608.0;
+        default:
+            return b.getInt(i) / 2147483648.0;
+        }
+    }
+
+    private ByteBuffer readAt(final long position, final int size) throws IOException {
+        final ByteBuffer buffer = ByteBuffer.allocate(size).order(ByteOrder.LITTLE_ENDIAN);
+        while (buffer.hasRemaining())
+            if (channel.read(buffer, position + buffer.position()) < 0)
+                break;
+        if (buffer.position() < size)
+            throw new IOException("unexpected end of file: " + file);
+        return buffer;
+    }
+
+    private static int fourCC(final String s) {
+        return (s.charAt(0) & 0xFF) | (s.charAt(1) & 0xFF) << 8 | (s.charAt(2) & 0xFF) << 16 | (s.charAt(3) & 0xFF) << 24;
+    }
+
+}
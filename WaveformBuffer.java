@@ -0,0 +1,86 @@
+import java.util.concurrent.atomic.AtomicReference;
+
+/* 書き手のスレッドが埋めた波形を JavaFX のスレッドへ渡すダブルバッファ
+ * 書き手は back() の配列に1フレーム分を書いて publish し，読み手は update() で最新の公開分を front() として受け取る．
+ * 受け渡し用にもう1枚(公開中のもの)を持ち，publish と update はその1枚と自分の1枚を AtomicReference で入れ替えるだけなので，
+ * ロックもメモリ確保もなく，書き手が読み手の描いている配列を書き換えることもない．
+ * 読み手が間に合わなかった公開分は新しいもので上書きされる(常に最新のフレームが描かれる) */
+public final class WaveformBuffer {
+
+    /* 1フレーム分の波形 */
+    public static final class Frame {
+        private final double[] samples;
+        private long position;
+        private long sequence;
+
+        private Frame(final int size) {
+            this.samples = new double[size];
+        }
+
+        public final double[] getSamples() {
+            return samples;
+        }
+
+        /* フレームの末尾の位置 [samples] */
+        public final long getPosition() {
+            return position;
+        }
+    }
+
+    private final int size;
+    // 書き手だけが触る
+    private Frame back;
+    private long published = 0;
+    // 公開中のもの
+    private final AtomicReference<Frame> ready;
+    // 読み手だけが触る
+    private Frame front;
+    private long dropped = 0;
+
+    public WaveformBuffer(final int size) {
+        if (size < 1)
+            throw new IllegalArgumentException("size must be positive: " + size);
+        this.size = size;
+        this.back = new Frame(size);
+        this.ready = new AtomicReference<>(new Frame(size));
+        this.front = new Frame(size);
+    }
+
+    public final int getSize() {
+        return size;
+    }
+
+    /* 書き手の側: 次に書く配列(publish するまで読み手からは見えない) */
+    public final double[] back() {
+        return back.samples;
+    }
+
+    /* 書き手の側: back() に書いた内容を公開する */
+    public final void publish(final long position) {
+        back.position = position;
+        back.sequence = ++published;
+        back = ready.getAndSet(back);
+    }
+
+    /* 読み手の側: 前回から新しい公開分があれば front() をそれに替えて true を返す */
+    public final boolean update() {
+        final long sequence = ready.get().sequence;
+        if (sequence <= front.sequence)
+            return false;
+        final long previous = front.sequence;
+        front = ready.getAndSet(front);
+        dropped += front.sequence - previous - 1;
+        return true;
+    }
+
+    /* 読み手の側: 最後に update で受け取ったフレーム */
+    public final Frame front() {
+        return front;
+    }
+
+    /* 読み手の側: 描かれずに上書きされたフレーム数 */
+    public final long getDropped() {
+        return dropped;
+    }
+
+}
@@ -0,0 +1,153 @@
+import java.util.function.LongToDoubleFunction;
+
+import javafx.collections.FXCollections;
+import javafx.collections.ObservableList;
+import javafx.scene.chart.NumberAxis;
+import javafx.scene.chart.XYChart;
+
+/* 波形表示用の間引き(min/max ピラミッド)
+ * 波形を baseBlock サンプルごとの最小値・最大値にまとめ，それを2個ずつまとめた段，さらに2個ずつ…と重ねて持つ．
+ * 表示する範囲を横 columns 列に分け，各列の最小値・最大値を粗い段から順に組み合わせて求めるので，
+ * 1列あたりの手間は列の幅によらず O(baseBlock + log(長さ)) で，チャートの点の数は常に 2*columns 以下になる．
+ * 拡大しても縮小しても各列の最小値・最大値は元の波形と同じなので，見た目は全サンプルを描いたときと変わらない */
+public final class WaveformLOD {
+
+    // 最も細かい段の1区間のサンプル数
+    public static final int baseBlock = 64;
+
+    private final long length;
+    private final LongToDoubleFunction sample;
+    // min[l][i], max[l][i] は (baseBlock << l) * i サンプル目から baseBlock << l サンプルの最小値・最大値
+    private final float[][] min;
+    private final float[][] max;
+
+    /* メモリ上の波形から作る */
+    public WaveformLOD(final double[] waveform) {
+        this(waveform.length, i -> waveform[(int) i]);
+    }
+
+    /* WAV ファイルから作る．表示のときに端のサンプルを reader から読むので，使い終わるまで閉じないこと */
+    public WaveformLOD(final WavFileReader reader) {
+        this(reader.getLength(), reader::sample);
+    }
+
+    private WaveformLOD(final long length, final LongToDoubleFunction sample) {
+        this.length = length;
+        this.sample = sample;
+
+        /* 最も細かい段は波形を先頭から1度だけ読んで作る */
+        final long blocks0 = (length + baseBlock - 1) / baseBlock;
+        if (blocks0 > Integer.MAX_VALUE)
+            throw new IllegalArgumentException("too long: " + length + " samples");
+        int levels = 1;
+        for (long n = blocks0; n > 1; n = (n + 1) / 2)
+            levels++;
+        this.min = new float[levels][];
+        this.max = new float[levels][];
+        min[0] = new float[(int) blocks0];
+        max[0] = new float[(int) blocks0];
+        for (int b = 0; b < blocks0; b++) {
+            double lo = Double.POSITIVE_INFINITY, hi = Double.NEGATIVE_INFINITY;
+            final long end = Math.min(length, (long) (b + 1) * baseBlock);
+            for (long i = (long) b * baseBlock; i < end; i++) {
+                final double v = sample.applyAsDouble(i);
+                lo = Math.min(lo, v);
+                hi = Math.max(hi, v);
+            }
+            min[0][b] = (float) lo;
+            max[0][b] = (float) hi;
+        }
+
+        /* 上の段は下の段を2個ずつまとめる */
+        for (int l = 1; l < levels; l++) {
+            final int n = (min[l - 1].length + 1) / 2;
+            min[l] = new float[n];
+            max[l] = new float[n];
+            for (int i = 0; i < n; i++) {
+                final int j = Math.min(2 * i + 1, min[l - 1].length - 1);
+                min[l][i] = Math.min(min[l - 1][2 * i], min[l - 1][j]);
+                max[l][i] = Math.max(max[l - 1][2 * i], max[l - 1][j]);
+            }
+        }
+    }
+
+    public final long getLength() {
+        return length;
+    }
+
+    public final int getLevels() {
+        return min.length;
+    }
+
+    /* [from, to) サンプルを columns 列に分け，列 c の最小値・最大値を lo[c], hi[c] に書く．
+     * 列の幅が1サンプルに満たないときは列数を減らし，書いた列数を返す */
+    public final int envelope(final long from, final long to, final int columns, final double[] lo, final double[] hi) {
+        if (from < 0 || to > length || from > to)
+            throw new IndexOutOfBoundsException("from = " + from + ", to = " + to + ", length = " + length);
+        if (columns < 1)
+            throw new IllegalArgumentException("columns must be positive: " + columns);
+        final int n = (int) Math.min(columns, to - from);
+        for (int c = 0; c < n; c++) {
+            final long a = from + (to - from) * c / n;
+            final long b = from + (to - from) * (c + 1) / n;
+            double mn = Double.POSITIVE_INFINITY, mx = Double.NEGATIVE_INFINITY;
+            for (long pos = a; pos < b; ) {
+                /* 区間の境目に揃っていない端は1サンプルずつ見る */
+                if (pos % baseBlock != 0 || b - pos < baseBlock) {
+                    final double v = sample.applyAsDouble(pos++);
+                    mn = Math.min(mn, v);
+                    mx = Math.max(mx, v);
+                    continue;
+                }
+                /* pos から始まり b を越えない最も粗い区間を使う */
+                final long block = pos / baseBlock;
+                int l = 0;
+                while (l + 1 < min.length
+                       && (block & ((1L << (l + 1)) - 1)) == 0
+                       && pos + ((long) baseBlock << (l + 1)) <= b)
+                    l++;
+                final int i = (int) (block >> l);
+                mn = Math.min(mn, min[l][i]);
+                mx = Math.max(mx, max[l][i]);
+                pos += (long) baseBlock << l;
+            }
+            lo[c] = mn;
+            hi[c] = mx;
+        }
+        return n;
+    }
+
+    /* 時刻 fromTime ... toTime [秒] を columns 列に間引いたチャートのデータ(1列につき最小値・最大値の2点) */
+    public final ObservableList<XYChart.Data<Number, Number>> data(final double fromTime, final double toTime,
+                                                                   final int columns, final double sampleRate) {
+        final long from = Math.max(0, Math.min(length, (long) Math.floor(fromTime * sampleRate)));
+        final long to = Math.max(from, Math.min(length, (long) Math.ceil(toTime * sampleRate) + 1));
+        final double[] lo = new double[columns];
+        final double[] hi = new double[columns];
+        final int n = envelope(from, to, columns, lo, hi);
+        final ObservableList<XYChart.Data<Number, Number>> data = FXCollections.observableArrayList();
+        for (int c = 0; c < n; c++) {
+            final long a = from + (to - from) * c / n;
+            final long b = from + (to - from) * (c + 1) / n;
+            if (b - a == 1) {
+                data.add(new XYChart.Data<>(a / sampleRate, lo[c]));
+            } else {
+                /* 列の中で最小値，最大値の順に縦線を描く */
+                data.add(new XYChart.Data<>(a / sampleRate, lo[c]));
+                data.add(new XYChart.Data<>((a + b - 1) * 0.5 / sampleRate, hi[c]));
+            }
+        }
+        return data;
+    }
+
+    /* X 軸の表示範囲が変わるたびに series のデータを作り直す(拡大・縮小しても点の数は 2*columns 以下) */
+    public final void bind(final XYChart.Series<Number, Number> series, final NumberAxis xAxis,
+                           final int columns, final double sampleRate) {
+        final Runnable update = () ->
+            series.setData(data(xAxis.getLowerBound(), xAxis.getUpperBound(), columns, sampleRate));
+        xAxis.lowerBoundProperty().addListener((obs, oldValue, newValue) -> update.run());
+        xAxis.upperBoundProperty().addListener((obs, oldValue, newValue) -> update.run());
+        update.run();
+    }
+
+}
@@ -0,0 +1,26 @@
+import java.util.Arrays;
+import java.util.concurrent.ConcurrentHashMap;
+
+import org.apache.commons.math3.util.MathArrays;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* 窓関数の表
+ * 各ツールが毎回作っていた「長さ frameSize のハニング窓を fftSize まで 0 で伸ばし，和が 1 になるよう正規化したもの」を
+ * (frameSize, fftSize) ごとに1度だけ作って共有する(BatchDriver で多数のファイルを処理するとき用)．
+ * 返す配列は共有されるので書き換えないこと */
+public final class Windows {
+
+    private static final ConcurrentHashMap<Long, double[]> hanning = new ConcurrentHashMap<>();
+
+    private Windows() {}
+
+    /* 正規化したハニング窓(長さ fftSize，frameSize 以降は 0) */
+    public static double[] hanning(final int frameSize, final int fftSize) {
+        if (frameSize < 1 || fftSize < frameSize)
+            throw new IllegalArgumentException("invalid size: frameSize = " + frameSize + ", fftSize = " + fftSize);
+        return hanning.computeIfAbsent(((long) frameSize << 32) | fftSize,
+            key -> MathArrays.normalizeArray(Arrays.copyOf(Le4MusicUtils.hanning(frameSize), fftSize), 1.0));
+    }
+
+}
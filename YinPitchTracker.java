@@ -0,0 +1,176 @@
+import java.util.Arrays;
+
+import jp.ac.kyoto_u.kuis.le4music.Le4MusicUtils;
+
+/* YIN による基本周波数推定(de Cheveigné & Kawahara)
+ * フレーム長 N の前半 W = N/2 サンプルを積分窓として，差分関数
+ *   d(τ) = Σ_{j<W} (x_j - x_{j+τ})^2 = e(0) + e(τ) - 2 Σ_{j<W} x_j x_{j+τ}    (e(τ) = Σ_{j<W} x_{j+τ}^2)
+ * の相互相関の項を FFT で，e(τ) を累積和で求め，累積平均で正規化した
+ *   d'(τ) = d(τ) τ / Σ_{k=1}^{τ} d(k)    (d'(0) = 1)
+ * が threshold を下回る最初の谷を周期とする(1フレーム O(N log N)，作業領域は使い回す)．
+ * 自己相関のピークと違って τ の小さいほうから探すので倍音・2倍周期を選びにくく，
+ * 1 - d'(周期) を確からしさ(0 ... 1)として返すので，RMS を別に求めなくても有声・無声を判定できる */
+public final class YinPitchTracker {
+
+    private final double sampleRate;
+    private final int frameSize;
+    private final int hopSize;
+    // 積分窓の長さ W と調べる τ の範囲 [minLag, maxLag)
+    private final int window;
+    private final int minLag;
+    private final int maxLag;
+
+    private double threshold = 0.15;
+
+    // 零詰めしたフレームとそのスペクトル・相互相関を置く作業領域
+    private final FFT fft;
+    private final double[] src;
+    private final double[] frameRe;
+    private final double[] frameIm;
+    private final double[] headRe;
+    private final double[] headIm;
+    private final double[] correlation;
+    // energy[i] = Σ_{j<i} x_j^2
+    private final double[] energy;
+    // 各τについての正規化した差分関数 d'(τ)
+    private final double[] difference;
+
+    // 直前の estimate の結果
+    private double confidence;
+
+    /* frameSize サンプルのフレームから f0UpperBound [Hz] 以下の基本周波数を求める(f0 の下限は 2 sampleRate / frameSize 程度) */
+    public YinPitchTracker(final double sampleRate, final int frameSize,
+                           final int hopSize, final double f0UpperBound) {
+        if (frameSize < 8)
+            throw new IllegalArgumentException("frameSize must be at least 8: " + frameSize);
+        if (hopSize < 1)
+            throw new IllegalArgumentException("hopSize must be positive: " + hopSize);
+        if (!(f0UpperBound > 0.0))
+            throw new IllegalArgumentException("f0UpperBound must be positive: " + f0UpperBound);
+        this.sampleRate = sampleRate;
+        this.frameSize = frameSize;
+        this.hopSize = hopSize;
+        this.window = frameSize / 2;
+        this.maxLag = frameSize - window;
+        this.minLag = Math.max(2, Math.min(maxLag - 2, (int) Math.floor(sampleRate / f0UpperBound)));
+        /* j + τ < N なので N 点以上あれば巡回畳み込みにならない */
+        this.fft = new FFT(1 << Le4MusicUtils.nextPow2(frameSize));
+        this.src = new double[fft.getSize()];
+        this.frameRe = new double[fft.getBins()];
+        this.frameIm = new double[fft.getBins()];
+        this.headRe = new double[fft.getBins()];
+        this.headIm = new double[fft.getBins()];
+        this.correlation = new double[fft.getSize()];
+        this.energy = new double[frameSize + 1];
+        this.difference = new double[maxLag];
+    }
+
+    /* d'(τ) がこれ未満の谷を有声とみなす(Default: 0.15) */
+    public final YinPitchTracker threshold(final double threshold) {
+        if (!(threshold > 0.0 && threshold < 1.0))
+            throw new IllegalArgumentException("threshold must be in (0, 1): " + threshold);
+        this.threshold = threshold;
+        return this;
+    }
+
+    public final int getFrameSize() {
+        return frameSize;
+    }
+
+    public final int getHopSize() {
+        return hopSize;
+    }
+
+    /* 長さ length の波形に対するフレーム数(AutocorrelationPitchTracker と同じ) */
+    public final int getFrames(final int length) {
+        final int last = length - frameSize - 1;
+        return last > 0 ? (last - 1) / hopSize + 1 : 0;
+    }
+
+    /* 波形全体について各フレームの基本周波数を求める．i 番目の値は i*hopSize サンプル目から始まるフレームのもの */
+    public final double[] track(final double[] waveform) {
+        final double[] f0 = new double[getFrames(waveform.length)];
+        for (int i = 0; i < f0.length; i++)
+            f0[i] = estimate(waveform, i * hopSize);
+        return f0;
+    }
+
+    /* 先頭 frameSize サンプルのフレームの基本周波数．無声なら 0 */
+    public final double estimate(final double[] frame) {
+        return estimate(frame, 0);
+    }
+
+    /* offset サンプル目から始まる1フレームの基本周波数．無声なら 0(確からしさは getConfidence で得られる) */
+    public final double estimate(final double[] waveform, final int offset) {
+        final int n = Math.max(0, Math.min(frameSize, waveform.length - offset));
+        normalizedDifference(waveform, offset, n);
+
+        /* d'(τ) が threshold を下回る最初の谷(なければ全体の最小)を探す */
+        int lag = -1;
+        int best = minLag;
+        for (int tau = minLag; tau < maxLag - 1; tau++) {
+            if (difference[tau] < threshold) {
+                while (tau + 1 < maxLag - 1 && difference[tau + 1] < difference[tau])
+                    tau++;
+                lag = tau;
+                break;
+            }
+            if (difference[tau] < difference[best])
+                best = tau;
+        }
+        final boolean voiced = lag >= 0;
+        if (!voiced)
+            lag = best;
+        confidence = Math.max(0.0, Math.min(1.0, 1.0 - difference[lag]));
+        if (!voiced)
+            return 0.0;
+
+        /* 放物線補間でサブサンプル精度の周期にする */
+        final double a = difference[lag - 1];
+        final double b = difference[lag];
+        final double c = difference[lag + 1];
+        final double denominator = a - 2.0 * b + c;
+        final double period = denominator > 0.0 ? lag + 0.5 * (a - c) / denominator : lag;
+        return sampleRate / period;
+    }
+
+    /* 直前の estimate のフレームの確からしさ 1 - d'(τ) (無音なら 0) */
+    public final double getConfidence() {
+        return confidence;
+    }
+
+    /* difference[τ] = d'(τ) (0 <= τ < maxLag) */
+    private void normalizedDifference(final double[] waveform, final int offset, final int n) {
+        /* フレーム全体と前半 W サンプルのスペクトル */
+        Arrays.fill(src, 0.0);
+        System.arraycopy(waveform, offset, src, 0, n);
+        fft.rfft(src, frameRe, frameIm);
+        Arrays.fill(src, Math.min(n, window), src.length, 0.0);
+        fft.rfft(src, headRe, headIm);
+
+        /* conj(前半) × 全体 の逆変換が Σ_{j<W} x_j x_{j+τ} */
+        for (int k = 0; k < frameRe.length; k++) {
+            final double re = headRe[k] * frameRe[k] + headIm[k] * frameIm[k];
+            final double im = headRe[k] * frameIm[k] - headIm[k] * frameRe[k];
+            frameRe[k] = re;
+            frameIm[k] = im;
+        }
+        fft.irfft(frameRe, frameIm, correlation);
+
+        energy[0] = 0.0;
+        for (int j = 0; j < frameSize; j++) {
+            final double x = j < n ? waveform[offset + j] : 0.0;
+            energy[j + 1] = energy[j] + x * x;
+        }
+
+        difference[0] = 1.0;
+        double sum = 0.0;
+        for (int tau = 1; tau < maxLag; tau++) {
+            // 丸め誤差で負にならないようにする
+            final double d = Math.max(0.0, energy[window] + (energy[tau + window] - energy[tau]) - 2.0 * correlation[tau]);
+            sum += d;
+            difference[tau] = sum > 0.0 ? d * tau / sum : 1.0;
+        }
+    }
+
+}